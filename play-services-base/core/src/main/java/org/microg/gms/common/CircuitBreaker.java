@@ -0,0 +1,117 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.common;
+
+import android.os.Bundle;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-host circuit breaker. After {@link #FAILURE_THRESHOLD} consecutive failures requests to the host
+ * fail fast for {@link #OPEN_DURATION_MS}, then a single trial request decides whether to close again.
+ */
+public class CircuitBreaker {
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long OPEN_DURATION_MS = 30000;
+    private static final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String host;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean trialInFlight;
+    private long timesOpened;
+    private long rejected;
+
+    private CircuitBreaker(String host) {
+        this.host = host;
+    }
+
+    public static CircuitBreaker forHost(String host) {
+        return breakers.computeIfAbsent(host, CircuitBreaker::new);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return true if a request may be sent. Every permitted request must be followed by
+     * {@link #onSuccess()}, {@link #onFailure()} or {@link #release()}.
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case OPEN:
+                if (System.nanoTime() - openedAtNanos < OPEN_DURATION_MS * 1000000L) {
+                    rejected++;
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                return true;
+            case HALF_OPEN:
+                if (trialInFlight) {
+                    rejected++;
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * The host answered. Client errors count as success, as they do not indicate an unhealthy host.
+     */
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        trialInFlight = false;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= FAILURE_THRESHOLD)) {
+            state = State.OPEN;
+            openedAtNanos = System.nanoTime();
+            timesOpened++;
+        }
+    }
+
+    /**
+     * The request was abandoned before the host answered.
+     */
+    public synchronized void release() {
+        trialInFlight = false;
+    }
+
+    private synchronized void writeTo(Bundle bundle, String prefix) {
+        bundle.putString(prefix + ".state", state.name());
+        bundle.putInt(prefix + ".consecutiveFailures", consecutiveFailures);
+        bundle.putLong(prefix + ".timesOpened", timesOpened);
+        bundle.putLong(prefix + ".rejected", rejected);
+    }
+
+    /**
+     * Write the state of all breakers into a bundle, keyed by {@code <prefix>.<host>}.
+     */
+    public static void writeAllTo(Bundle bundle, String prefix) {
+        for (CircuitBreaker breaker : breakers.values()) {
+            breaker.writeTo(bundle, prefix + "." + breaker.host);
+        }
+    }
+}
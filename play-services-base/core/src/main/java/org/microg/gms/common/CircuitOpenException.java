@@ -0,0 +1,17 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.common;
+
+import java.io.IOException;
+
+/**
+ * A request was not sent because the {@link CircuitBreaker} for its host is open.
+ */
+public class CircuitOpenException extends IOException {
+    public CircuitOpenException(String host) {
+        super("Circuit open for " + host);
+    }
+}
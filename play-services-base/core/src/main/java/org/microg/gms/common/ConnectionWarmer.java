@@ -0,0 +1,127 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.common;
+
+import android.accounts.AccountManager;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.microg.gms.auth.AuthConstants;
+import org.microg.gms.settings.SettingsContract;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Resolves and connects to the auth and checkin hosts ahead of the first real request. The connections
+ * are left idle in the {@link HttpTransport} pool, so the first token request does not pay for DNS, TCP
+ * and TLS. Warm-up runs when {@link #start} is called and again whenever the default network changes,
+ * as long as checkin is enabled or an account exists.
+ */
+public final class ConnectionWarmer {
+    private static final String TAG = "GmsConnectionWarmer";
+    private static final String[] WARM_URLS = {"https://android.googleapis.com/", "https://android.clients.google.com/"};
+    private static final long MIN_INTERVAL_MS = 60000;
+
+    // At most one warm-up running and one pending, further triggers are dropped
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(1), runnable -> new Thread(runnable, "ConnectionWarmer"), new ThreadPoolExecutor.DiscardPolicy());
+
+    private static volatile long lastWarmUp;
+    private static volatile Context appContext;
+    private static boolean watchingNetwork;
+    private static Network currentNetwork;
+
+    private ConnectionWarmer() {
+    } // Prevent instantiation
+
+    /**
+     * Warm up connections unless this happened recently, and keep them warm across network changes.
+     */
+    public static synchronized void start(Context context) {
+        appContext = context.getApplicationContext();
+        if (!watchingNetwork) {
+            ConnectivityManager connectivityManager = (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            try {
+                connectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                    @Override
+                    public void onAvailable(Network network) {
+                        onNetworkAvailable(network);
+                    }
+                });
+                watchingNetwork = true;
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Can't watch network changes", e);
+            }
+        }
+        warmUp(false);
+    }
+
+    private static void onNetworkAvailable(Network network) {
+        Network previous;
+        synchronized (ConnectionWarmer.class) {
+            previous = currentNetwork;
+            currentNetwork = network;
+        }
+        if (previous == null || previous.equals(network)) {
+            warmUp(false);
+        } else {
+            // Pooled connections belong to the previous network
+            Log.d(TAG, "Default network changed, reconnecting");
+            HttpTransport.evictConnections();
+            warmUp(true);
+        }
+    }
+
+    /**
+     * @param force Warm up even if this already happened in the last minute.
+     */
+    public static void warmUp(boolean force) {
+        long now = SystemClock.elapsedRealtime();
+        if (!force && lastWarmUp != 0 && now - lastWarmUp < MIN_INTERVAL_MS) return;
+        lastWarmUp = now;
+        executor.execute(() -> {
+            if (!isNeeded()) return;
+            for (String url : WARM_URLS) {
+                connect(url);
+            }
+        });
+    }
+
+    /**
+     * Nothing will talk to the auth and checkin hosts unless checkin is enabled or an account exists.
+     */
+    private static boolean isNeeded() {
+        Context context = appContext;
+        if (context == null) return false;
+        if (AccountManager.get(context).getAccountsByType(AuthConstants.DEFAULT_ACCOUNT_TYPE).length > 0) return true;
+        try {
+            return SettingsContract.getSettings(context, SettingsContract.CheckIn.INSTANCE.getContentUri(context),
+                    new String[]{SettingsContract.CheckIn.ENABLED}, cursor -> cursor.getInt(0) != 0);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Can't read checkin settings", e);
+            return false;
+        }
+    }
+
+    private static void connect(String url) {
+        long start = SystemClock.elapsedRealtime();
+        Request request = new Request.Builder().url(url).head().build();
+        try (Response response = HttpTransport.getClient().newCall(request).execute()) {
+            Log.d(TAG, "Connected to " + url + " in " + (SystemClock.elapsedRealtime() - start) + "ms (" + response.code() + ")");
+        } catch (IOException e) {
+            Log.d(TAG, "Can't connect to " + url + ": " + e.getMessage());
+        }
+    }
+}
@@ -18,11 +18,13 @@ package org.microg.gms.common;
 
 import android.app.ActivityManager;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.pm.ConfigurationInfo;
 import android.content.pm.FeatureInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
 import android.opengl.GLES10;
+import android.text.TextUtils;
 import android.util.DisplayMetrics;
 import org.microg.gms.profile.Build;
 import org.microg.gms.profile.ProfileManager;
@@ -40,6 +42,16 @@ import javax.microedition.khronos.egl.EGLContext;
 import javax.microedition.khronos.egl.EGLDisplay;
 
 public class DeviceConfiguration {
+    private static final String PREFERENCES_NAME = "device_configuration";
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final String PREF_VERSION = "version";
+    private static final String PREF_KEY = "key";
+    private static final String PREF_SHARED_LIBRARIES = "shared_libraries";
+    private static final String PREF_AVAILABLE_FEATURES = "available_features";
+    private static final String PREF_GL_EXTENSIONS = "gl_extensions";
+
+    private static Snapshot snapshot;
+
     public List<String> availableFeatures;
     public int densityDpi;
     public int glEsVersion;
@@ -69,9 +81,60 @@ public class DeviceConfiguration {
         DisplayMetrics displayMetrics = context.getResources().getDisplayMetrics();
         densityDpi = displayMetrics.densityDpi;
         glEsVersion = configurationInfo.reqGlEsVersion;
-        PackageManager packageManager = context.getPackageManager();
+        Snapshot snapshot = getSnapshot(context);
+        sharedLibraries = new ArrayList<String>(snapshot.sharedLibraries);
+        availableFeatures = new ArrayList<String>(snapshot.availableFeatures);
+        this.nativePlatforms = getNativePlatforms();
+        widthPixels = displayMetrics.widthPixels;
+        heightPixels = displayMetrics.heightPixels;
+        locales = new ArrayList<String>(Arrays.asList(context.getAssets().getLocales()));
+        for (int i = 0; i < locales.size(); i++) {
+            locales.set(i, locales.get(i).replace("-", "_"));
+        }
+        Collections.sort(locales);
+        glExtensions = new ArrayList<String>(snapshot.glExtensions);
+    }
+
+    /**
+     * Shared libraries, features and GL extensions only change with the system build or device profile,
+     * so they are computed once and persisted. Querying GL extensions requires creating EGL contexts.
+     */
+    private static synchronized Snapshot getSnapshot(Context context) {
+        // The profile fingerprint identifies the device profile in use
+        String key = android.os.Build.FINGERPRINT + "|" + Build.FINGERPRINT;
+        if (snapshot != null && snapshot.key.equals(key)) return snapshot;
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        if (preferences.getInt(PREF_VERSION, 0) == SNAPSHOT_VERSION && key.equals(preferences.getString(PREF_KEY, null))) {
+            snapshot = new Snapshot(key, split(preferences.getString(PREF_SHARED_LIBRARIES, null)),
+                    split(preferences.getString(PREF_AVAILABLE_FEATURES, null)),
+                    split(preferences.getString(PREF_GL_EXTENSIONS, null)));
+        } else {
+            PackageManager packageManager = context.getPackageManager();
+            Snapshot computed = new Snapshot(key, getSharedLibraries(packageManager), getAvailableFeatures(packageManager), getGlExtensions());
+            if (computed.glExtensions.isEmpty()) {
+                // Querying EGL failed, possibly only this time, so compute it again next time
+                return computed;
+            }
+            snapshot = computed;
+            preferences.edit()
+                    .putInt(PREF_VERSION, SNAPSHOT_VERSION)
+                    .putString(PREF_KEY, key)
+                    .putString(PREF_SHARED_LIBRARIES, TextUtils.join("\n", snapshot.sharedLibraries))
+                    .putString(PREF_AVAILABLE_FEATURES, TextUtils.join("\n", snapshot.availableFeatures))
+                    .putString(PREF_GL_EXTENSIONS, TextUtils.join("\n", snapshot.glExtensions))
+                    .apply();
+        }
+        return snapshot;
+    }
+
+    private static List<String> split(String joined) {
+        if (joined == null || joined.isEmpty()) return Collections.emptyList();
+        return Arrays.asList(joined.split("\n"));
+    }
+
+    private static List<String> getSharedLibraries(PackageManager packageManager) {
         String[] systemSharedLibraryNames = packageManager.getSystemSharedLibraryNames();
-        sharedLibraries = new ArrayList<String>();
+        List<String> sharedLibraries = new ArrayList<String>();
         if (systemSharedLibraryNames != null) sharedLibraries.addAll(Arrays.asList(systemSharedLibraryNames));
         for (String s : new String[]{"com.google.android.maps", "com.google.android.media.effects", "com.google.widevine.software.drm"}) {
             if (!sharedLibraries.contains(s)) {
@@ -79,25 +142,26 @@ public class DeviceConfiguration {
             }
         }
         Collections.sort(sharedLibraries);
-        availableFeatures = new ArrayList<String>();
+        return sharedLibraries;
+    }
+
+    private static List<String> getAvailableFeatures(PackageManager packageManager) {
+        List<String> availableFeatures = new ArrayList<String>();
         if (packageManager.getSystemAvailableFeatures() != null) {
             for (FeatureInfo featureInfo : packageManager.getSystemAvailableFeatures()) {
                 if (featureInfo != null && featureInfo.name != null) availableFeatures.add(featureInfo.name);
             }
         }
         Collections.sort(availableFeatures);
-        this.nativePlatforms = getNativePlatforms();
-        widthPixels = displayMetrics.widthPixels;
-        heightPixels = displayMetrics.heightPixels;
-        locales = new ArrayList<String>(Arrays.asList(context.getAssets().getLocales()));
-        for (int i = 0; i < locales.size(); i++) {
-            locales.set(i, locales.get(i).replace("-", "_"));
-        }
-        Collections.sort(locales);
+        return availableFeatures;
+    }
+
+    private static List<String> getGlExtensions() {
         Set<String> glExtensions = new HashSet<String>();
         addEglExtensions(glExtensions);
-        this.glExtensions = new ArrayList<String>(glExtensions);
-        Collections.sort(this.glExtensions);
+        List<String> sorted = new ArrayList<String>(glExtensions);
+        Collections.sort(sorted);
+        return sorted;
     }
 
     @SuppressWarnings({"deprecation", "InlinedApi"})
@@ -174,4 +238,18 @@ public class DeviceConfiguration {
             }
         }
     }
+
+    private static class Snapshot {
+        final String key;
+        final List<String> sharedLibraries;
+        final List<String> availableFeatures;
+        final List<String> glExtensions;
+
+        Snapshot(String key, List<String> sharedLibraries, List<String> availableFeatures, List<String> glExtensions) {
+            this.key = key;
+            this.sharedLibraries = sharedLibraries;
+            this.availableFeatures = availableFeatures;
+            this.glExtensions = glExtensions;
+        }
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads {@code key=value} lines straight from a stream. The read and line buffers are kept per thread
+ * and reused, so only the key and value Strings are allocated for every line.
+ */
+final class FormLineReader {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int INITIAL_LINE_SIZE = 512;
+
+    private static final ThreadLocal<FormLineReader> readers = new ThreadLocal<FormLineReader>() {
+        @Override
+        protected FormLineReader initialValue() {
+            return new FormLineReader();
+        }
+    };
+
+    interface LineHandler {
+        /**
+         * @param key   The trimmed key, or null if the line has no {@code =}.
+         * @param value The trimmed value, or the whole trimmed line if the line has no {@code =}.
+         */
+        void onLine(String key, String value);
+    }
+
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    private byte[] line = new byte[INITIAL_LINE_SIZE];
+    private int lineLength;
+
+    private FormLineReader() {
+    }
+
+    static void read(InputStream in, LineHandler handler) throws IOException {
+        FormLineReader reader = readers.get();
+        reader.lineLength = 0;
+        try {
+            reader.readLines(in, handler);
+        } finally {
+            reader.lineLength = 0;
+        }
+    }
+
+    private void readLines(InputStream in, LineHandler handler) throws IOException {
+        int read;
+        while ((read = in.read(readBuffer)) >= 0) {
+            int start = 0;
+            for (int i = 0; i < read; i++) {
+                if (readBuffer[i] == '\n') {
+                    append(start, i - start);
+                    emit(handler);
+                    start = i + 1;
+                }
+            }
+            append(start, read - start);
+        }
+        emit(handler);
+    }
+
+    private void append(int offset, int length) {
+        if (length <= 0) return;
+        if (lineLength + length > line.length) {
+            byte[] grown = new byte[Math.max(line.length * 2, lineLength + length)];
+            System.arraycopy(line, 0, grown, 0, lineLength);
+            line = grown;
+        }
+        System.arraycopy(readBuffer, offset, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private void emit(LineHandler handler) {
+        int end = lineLength;
+        lineLength = 0;
+        int separator = -1;
+        for (int i = 0; i < end; i++) {
+            if (line[i] == '=') {
+                separator = i;
+                break;
+            }
+        }
+        if (separator < 0) {
+            String text = string(0, end);
+            if (!text.isEmpty()) handler.onLine(null, text);
+        } else {
+            handler.onLine(string(0, separator), string(separator + 1, end));
+        }
+    }
+
+    /**
+     * Decode the bytes between {@code start} and {@code end}, without leading and trailing whitespace.
+     */
+    private String string(int start, int end) {
+        while (start < end && (line[start] & 0xff) <= ' ') start++;
+        while (end > start && (line[end - 1] & 0xff) <= ' ') end--;
+        return new String(line, start, end - start, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Gzip compression with pooled {@link Deflater} and {@link Inflater} instances, so the native zlib state
+ * is not allocated and freed for every request like {@link java.util.zip.GZIPInputStream} does.
+ */
+public final class Gzip {
+    private static final int POOL_SIZE = 4;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FLAG_HCRC = 2;
+    private static final int FLAG_EXTRA = 4;
+    private static final int FLAG_NAME = 8;
+    private static final int FLAG_COMMENT = 16;
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private static final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private Gzip() {
+    } // Prevent instantiation
+
+    public static byte[] compress(byte[] data) throws IOException {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 32);
+            out.write(HEADER);
+            DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            deflaterOut.write(data);
+            deflaterOut.finish();
+            writeInt(out, (int) crc.getValue());
+            writeInt(out, data.length);
+            return out.toByteArray();
+        } finally {
+            release(deflater);
+        }
+    }
+
+    /**
+     * Wrap a gzip stream. Closing the returned stream closes {@code in} and returns the inflater to the pool.
+     */
+    public static InputStream decompress(InputStream in) throws IOException {
+        readHeader(in);
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) inflater = new Inflater(true);
+        return new GzipInputStream(in, inflater);
+    }
+
+    private static void release(Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.offer(deflater)) deflater.end();
+    }
+
+    private static void release(Inflater inflater) {
+        inflater.reset();
+        if (!inflaters.offer(inflater)) inflater.end();
+    }
+
+    private static void readHeader(InputStream in) throws IOException {
+        if (readShort(in) != GZIP_MAGIC) throw new ZipException("Not in gzip format");
+        if (readByte(in) != Deflater.DEFLATED) throw new ZipException("Unsupported compression method");
+        int flags = readByte(in);
+        skip(in, 6); // mtime, xfl, os
+        if ((flags & FLAG_EXTRA) != 0) skip(in, readShort(in));
+        if ((flags & FLAG_NAME) != 0) while (readByte(in) != 0) ;
+        if ((flags & FLAG_COMMENT) != 0) while (readByte(in) != 0) ;
+        if ((flags & FLAG_HCRC) != 0) skip(in, 2);
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) throw new EOFException("Unexpected end of gzip stream");
+        return b;
+    }
+
+    private static int readShort(InputStream in) throws IOException {
+        return readByte(in) | (readByte(in) << 8);
+    }
+
+    private static long readInt(InputStream in) throws IOException {
+        return (readShort(in) | ((long) readShort(in) << 16)) & 0xffffffffL;
+    }
+
+    private static void skip(InputStream in, int n) throws IOException {
+        for (int i = 0; i < n; i++) readByte(in);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static class GzipInputStream extends InflaterInputStream {
+        private final CRC32 crc = new CRC32();
+        private boolean eos;
+        private boolean closed;
+
+        GzipInputStream(InputStream in, Inflater inflater) {
+            super(in, inflater, BUFFER_SIZE);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            if (eos) return -1;
+            int n = super.read(b, off, len);
+            if (n < 0) {
+                eos = true;
+                readTrailer();
+                return -1;
+            }
+            crc.update(b, off, n);
+            return n;
+        }
+
+        private void readTrailer() throws IOException {
+            // Bytes read past the end of the deflate data are still in the input buffer
+            int remaining = inf.getRemaining();
+            InputStream trailer = remaining > 0 ? new SequenceInputStream(new ByteArrayInputStream(buf, len - remaining, remaining), in) : in;
+            if (readInt(trailer) != crc.getValue()) throw new ZipException("Corrupt gzip trailer");
+            if (readInt(trailer) != (inf.getBytesWritten() & 0xffffffffL)) throw new ZipException("Corrupt gzip trailer");
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            release(inf);
+            in.close();
+        }
+    }
+}
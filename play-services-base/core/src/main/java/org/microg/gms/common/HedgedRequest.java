@@ -0,0 +1,197 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.common;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedged form requests: if no response arrives within a quantile of the observed request latency,
+ * one duplicate request is sent, the first successful response is used and the other request is cancelled.
+ * Duplicates are limited to a fraction of all hedged requests. Hedged requests run on their own bounded executor.
+ */
+public final class HedgedRequest {
+    private static final String TAG = "GmsHedgedRequest";
+    private static final long MIN_SAMPLES = 20;
+    private static final int MAX_THREADS = 4;
+    private static final int QUEUE_CAPACITY = 8;
+
+    private static volatile double delayQuantile = 0.95;
+    private static volatile double budgetRatio = 0.05;
+
+    private static final AtomicLong requests = new AtomicLong();
+    private static final AtomicLong hedgesSent = new AtomicLong();
+    private static final AtomicLong hedgeWins = new AtomicLong();
+
+    // Own executor, hedged requests must not crowd out other users of the shared HttpFormClient executor
+    private static final ThreadPoolExecutor executor = createExecutor();
+
+    private HedgedRequest() {
+    } // Prevent instantiation
+
+    /**
+     * @param delayQuantile Latency quantile after which a duplicate is sent, e.g. 0.95.
+     * @param budgetRatio   Maximum ratio of duplicates to requests, e.g. 0.05.
+     */
+    public static void setPolicy(double delayQuantile, double budgetRatio) {
+        if (delayQuantile <= 0 || delayQuantile >= 1 || budgetRatio < 0) throw new IllegalArgumentException("Invalid hedging policy");
+        HedgedRequest.delayQuantile = delayQuantile;
+        HedgedRequest.budgetRatio = budgetRatio;
+    }
+
+    public static <T> T request(String url, HttpFormClient.Request request, Class<T> tClass) throws IOException {
+        return request(url, request, tClass, RequestBudget.UNLIMITED);
+    }
+
+    /**
+     * @param budget Charged for the duplicate. If it is used up, no duplicate is sent.
+     */
+    public static <T> T request(String url, HttpFormClient.Request request, Class<T> tClass, RequestBudget budget) throws IOException {
+        long sent = requests.incrementAndGet();
+        LatencyHistogram latency = HttpFormClient.getRequestLatency();
+        long delayMs = latency.getCount() >= MIN_SAMPLES ? latency.quantileMillis(delayQuantile) : Long.MAX_VALUE;
+        if (delayMs == Long.MAX_VALUE || hedgesSent.get() + 1 > budgetRatio * sent) {
+            return HttpFormClient.request(url, request, tClass);
+        }
+
+        BlockingQueue<Outcome<T>> outcomes = new LinkedBlockingQueue<>();
+        Future<T> primary = HttpFormClient.requestAsync(executor, url, request, tClass, new Outcome.Collector<>(outcomes, false));
+        Future<T> hedge = null;
+        try {
+            Outcome<T> outcome = outcomes.poll(delayMs, TimeUnit.MILLISECONDS);
+            if (outcome == null) {
+                if (hedgesSent.incrementAndGet() > budgetRatio * requests.get()) {
+                    hedgesSent.decrementAndGet();
+                } else if (!budget.tryAcquire()) {
+                    Log.d(TAG, "No response after " + delayMs + "ms, request budget used up, not hedging");
+                    hedgesSent.decrementAndGet();
+                } else {
+                    Log.d(TAG, "No response after " + delayMs + "ms, sending hedged request");
+                    hedge = HttpFormClient.requestAsync(executor, url, request, tClass, new Outcome.Collector<>(outcomes, true));
+                    if (isRejected(hedge)) {
+                        // Executor is saturated, no duplicate was sent
+                        Log.d(TAG, "Hedge executor saturated, not hedging");
+                        outcomes.removeIf(rejected -> rejected.hedge);
+                        hedge = null;
+                        hedgesSent.decrementAndGet();
+                        budget.refund();
+                    }
+                }
+            }
+            if (outcome == null) outcome = outcomes.take();
+            if (outcome.exception instanceof RejectedExecutionException && hedge == null) {
+                // Executor is saturated, don't queue behind it
+                return HttpFormClient.request(url, request, tClass);
+            }
+            if (outcome.exception != null && hedge != null) {
+                // The other request may still succeed
+                Outcome<T> other = outcomes.take();
+                if (other.exception == null) outcome = other;
+            }
+            if (outcome.hedge && outcome.exception == null) hedgeWins.incrementAndGet();
+            return outcome.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for response");
+        } finally {
+            primary.cancel(true);
+            if (hedge != null) hedge.cancel(true);
+        }
+    }
+
+    private static boolean isRejected(Future<?> future) {
+        if (!future.isDone() || future.isCancelled()) return false;
+        try {
+            future.get();
+            return false;
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof RejectedExecutionException;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(QUEUE_CAPACITY), runnable -> new Thread(runnable, "HedgedRequest-" + threadNumber.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Write request, hedge and hedge win counts into a bundle. The hit rate is the share of
+     * hedges that answered first.
+     */
+    public static void writeTo(Bundle bundle, String prefix) {
+        long sent = hedgesSent.get();
+        long wins = hedgeWins.get();
+        bundle.putLong(prefix + ".requests", requests.get());
+        bundle.putLong(prefix + ".sent", sent);
+        bundle.putLong(prefix + ".wins", wins);
+        bundle.putDouble(prefix + ".hitRate", sent == 0 ? 0 : (double) wins / sent);
+    }
+
+    private static class Outcome<T> {
+        final T response;
+        final Exception exception;
+        final boolean hedge;
+
+        Outcome(T response, Exception exception, boolean hedge) {
+            this.response = response;
+            this.exception = exception;
+            this.hedge = hedge;
+        }
+
+        T get() throws IOException {
+            if (exception == null) return response;
+            if (exception instanceof IOException) throw (IOException) exception;
+            if (exception instanceof CancellationException || exception instanceof InterruptedException) {
+                InterruptedIOException interrupted = new InterruptedIOException("Request cancelled");
+                interrupted.initCause(exception);
+                throw interrupted;
+            }
+            // Bugs are not network failures, don't let HttpRetry count them against the host
+            if (exception instanceof RuntimeException) throw (RuntimeException) exception;
+            throw new IOException(exception);
+        }
+
+        static class Collector<T> implements HttpFormClient.Callback<T> {
+            private final BlockingQueue<Outcome<T>> outcomes;
+            private final boolean hedge;
+
+            Collector(BlockingQueue<Outcome<T>> outcomes, boolean hedge) {
+                this.outcomes = outcomes;
+                this.hedge = hedge;
+            }
+
+            @Override
+            public void onResponse(T response) {
+                outcomes.add(new Outcome<>(response, null, hedge));
+            }
+
+            @Override
+            public void onException(Exception exception) {
+                outcomes.add(new Outcome<>(null, exception, hedge));
+            }
+        }
+    }
+}
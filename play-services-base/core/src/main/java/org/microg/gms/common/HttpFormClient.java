@@ -20,192 +20,307 @@ import android.net.Uri;
 import android.util.Log;
 
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
-import java.lang.reflect.Field;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.Response;
 
 public class HttpFormClient {
     private static final String TAG = "GmsHttpFormClient";
+    private static final MediaType FORM_CONTENT_TYPE = MediaType.get("application/x-www-form-urlencoded");
+    private static final LatencyHistogram requestLatency = new LatencyHistogram();
+    private static final String CODEC_SUFFIX = "$000FormCodec";
+    private static final Map<Class<?>, Codec<?>> codecs = new ConcurrentHashMap<>();
+    private static final int DEFAULT_ASYNC_THREADS = 4;
+    private static final int DEFAULT_ASYNC_QUEUE_CAPACITY = 32;
+    private static final long ASYNC_KEEP_ALIVE_SECONDS = 30;
+    private static ThreadPoolExecutor asyncExecutor;
+    private static volatile int compressionThreshold = -1;
+
+    /**
+     * Latency of all requests made through {@link #request}, including failed ones.
+     */
+    public static LatencyHistogram getRequestLatency() {
+        return requestLatency;
+    }
+
+    /**
+     * Gzip request bodies of at least {@code minBytes} bytes, or send all bodies uncompressed if negative (default).
+     * Only enable this for servers that accept compressed request bodies.
+     */
+    public static void setRequestCompression(int minBytes) {
+        compressionThreshold = minBytes;
+    }
 
     public static <T> T request(String url, Request request, Class<T> tClass) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-        connection.setRequestMethod("POST");
-        connection.setDoInput(true);
-        connection.setDoOutput(true);
-        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-        StringBuilder content = new StringBuilder();
-        request.prepare();
-        for (Field field : request.getClass().getDeclaredFields()) {
-            try {
-                field.setAccessible(true);
-                Object objVal = field.get(request);
-                if (field.isAnnotationPresent(RequestContentDynamic.class)) {
-                    Map<String, String> contentParams = (Map<String, String>) objVal;
-                    for (Map.Entry<String, String> param : contentParams.entrySet()) {
-                        appendParam(content, param.getKey(), param.getValue());
-                    }
-                    continue;
-                }
-                String value = objVal != null ? String.valueOf(objVal) : null;
-                Boolean boolVal = null;
-                if (field.getType().equals(boolean.class)) {
-                    boolVal = field.getBoolean(request);
-                }
-                if (field.isAnnotationPresent(RequestHeader.class)) {
-                    RequestHeader annotation = field.getAnnotation(RequestHeader.class);
-                    value = valueFromBoolVal(value, boolVal, annotation.truePresent(), annotation.falsePresent());
-                    if (value != null || annotation.nullPresent()) {
-                        for (String key : annotation.value()) {
-                            connection.setRequestProperty(key, String.valueOf(value));
-                        }
-                    }
-                }
-                if (field.isAnnotationPresent(RequestContent.class)) {
-                    RequestContent annotation = field.getAnnotation(RequestContent.class);
-                    value = valueFromBoolVal(value, boolVal, annotation.truePresent(), annotation.falsePresent());
-                    if (value != null || annotation.nullPresent()) {
-                        for (String key : annotation.value()) {
-                            appendParam(content, key, value);
-                        }
-                    }
-                }
-            } catch (Exception ignored) {
-            }
+        return request(url, request, tClass, null);
+    }
+
+    private static <T> T request(String url, Request request, Class<T> tClass, AsyncRequest<?> owner) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return doRequest(url, request, tClass, owner);
+        } finally {
+            requestLatency.recordSince(start);
         }
+    }
 
-        Log.d(TAG, "-- Request --\n" + content);
-        OutputStream os = connection.getOutputStream();
-        os.write(content.toString().getBytes());
-        os.close();
+    private static <T> T doRequest(String url, Request request, Class<T> tClass, AsyncRequest<?> owner) throws IOException {
+        FormWriter writer = new FormWriter();
+        request.prepare();
+        HttpFormClient.<Request>getCodec(request.getClass()).writeRequest(request, writer);
 
-        if (connection.getResponseCode() != 200) {
-            String error = connection.getResponseMessage();
-            try {
-                error = new String(Utils.readStreamToEnd(connection.getErrorStream()));
-            } catch (IOException e) {
-                // Ignore
-            }
-            throw new IOException(error);
+        Log.d(TAG, "-- Request --\n" + writer.content);
+        byte[] content = writer.content.toString().getBytes();
+        // Setting Accept-Encoding ourselves disables OkHttp's transparent gzip, responses are decompressed in responseStream
+        if (writer.headers.get("Accept-Encoding") == null) writer.headers.set("Accept-Encoding", "gzip");
+        int threshold = compressionThreshold;
+        if (threshold >= 0 && content.length >= threshold) {
+            content = Gzip.compress(content);
+            writer.headers.set("Content-Encoding", "gzip");
         }
+        okhttp3.Request httpRequest = new okhttp3.Request.Builder()
+                .url(url)
+                .headers(writer.headers.build())
+                .post(RequestBody.create(content, FORM_CONTENT_TYPE))
+                .build();
 
-        String result = new String(Utils.readStreamToEnd(connection.getInputStream()));
-        Log.d(TAG, "-- Response --\n" + result);
-        return parseResponse(tClass, connection, result);
-    }
-
-    private static String valueFromBoolVal(String value, Boolean boolVal, boolean truePresent, boolean falsePresent) {
-        if (boolVal != null) {
-            if (boolVal && truePresent) {
-                return "1";
-            } else if (!boolVal && falsePresent) {
-                return "0";
-            } else {
-                return null;
+        Call call = HttpTransport.getClient().newCall(httpRequest);
+        if (owner != null) owner.setCall(call);
+        try (Response response = call.execute()) {
+            if (response.code() != 200) {
+                String error = response.message();
+                try (InputStream in = responseStream(response)) {
+                    error = new String(Utils.readStreamToEnd(in));
+                } catch (IOException e) {
+                    // Ignore
+                }
+                throw new HttpStatusException(response.code(), error);
             }
-        } else {
-            return value;
-        }
-    }
 
-    private static void appendParam(StringBuilder content, String key, String value) {
-        if (content.length() > 0)
-            content.append("&");
-        content.append(Uri.encode(key)).append("=").append(Uri.encode(String.valueOf(value)));
+            return parseResponse(tClass, response);
+        }
     }
 
-    private static <T> T parseResponse(Class<T> tClass, HttpURLConnection connection, String result) throws IOException {
-        Map<String, List<String>> headerFields = connection.getHeaderFields();
+    static <T> T parseResponse(Class<T> tClass, Response httpResponse) throws IOException {
+        Codec<T> codec = getCodec(tClass);
         T response;
         try {
-            response = tClass.getConstructor().newInstance();
+            response = codec.newInstance();
         } catch (Exception e) {
             return null;
         }
-        String[] entries = result.split("\n");
-        for (String s : entries) {
-            String[] keyValuePair = s.split("=", 2);
-            String key = keyValuePair[0].trim();
-            String value = keyValuePair[1].trim();
-            boolean matched = false;
-            try {
-                for (Field field : tClass.getDeclaredFields()) {
-                    if (field.isAnnotationPresent(ResponseField.class) &&
-                            key.equals(field.getAnnotation(ResponseField.class).value())) {
-                        matched = true;
-                        if (field.getType().equals(String.class)) {
-                            field.set(response, value);
-                        } else if (field.getType().equals(boolean.class)) {
-                            field.setBoolean(response, value.equals("1"));
-                        } else if (field.getType().equals(long.class)) {
-                            field.setLong(response, Long.parseLong(value));
-                        } else if (field.getType().equals(int.class)) {
-                            field.setInt(response, Integer.parseInt(value));
-                        }
-                    }
+        try (InputStream in = responseStream(httpResponse)) {
+            FormLineReader.read(in, (key, value) -> {
+                if (key == null) {
+                    Log.w(TAG, "Response line '" + value + "' not processed");
+                    return;
                 }
-            } catch (Exception e) {
-                Log.w(TAG, e);
-            }
-            if (!matched) {
-                Log.w(TAG, "Response line '" + s + "' not processed");
-            }
-        }
-        for (Field field : tClass.getDeclaredFields()) {
-            if (field.isAnnotationPresent(ResponseHeader.class)) {
-                List<String> strings = headerFields.get(field.getAnnotation(ResponseHeader.class).value());
-                if (strings == null || strings.size() != 1) continue;
-                String value = strings.get(0);
                 try {
-                    if (field.getType().equals(String.class)) {
-                        field.set(response, value);
-                    } else if (field.getType().equals(boolean.class)) {
-                        field.setBoolean(response, value.equals("1"));
-                    } else if (field.getType().equals(long.class)) {
-                        field.setLong(response, Long.parseLong(value));
-                    } else if (field.getType().equals(int.class)) {
-                        field.setInt(response, Integer.parseInt(value));
+                    if (!codec.readField(response, key, value)) {
+                        Log.w(TAG, "Response key '" + key + "' not processed");
                     }
                 } catch (Exception e) {
                     Log.w(TAG, e);
                 }
-            }
-            if (field.isAnnotationPresent(ResponseStatusCode.class) && field.getType() == int.class) {
-                try {
-                    field.setInt(response, connection.getResponseCode());
-                } catch (IllegalAccessException e) {
-                    Log.w(TAG, e);
-                }
-            }
-            if (field.isAnnotationPresent(ResponseStatusText.class) && field.getType() == String.class) {
-                try {
-                    field.set(response, connection.getResponseMessage());
-                } catch (IllegalAccessException e) {
-                    Log.w(TAG, e);
-                }
-            }
+            });
         }
+        codec.readMeta(response, httpResponse);
         return response;
     }
 
-    public static <T> void requestAsync(final String url, final Request request, final Class<T> tClass,
-                                        final Callback<T> callback) {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    callback.onResponse(request(url, request, tClass));
-                } catch (Exception e) {
-                    callback.onException(e);
-                }
+    /**
+     * The response body, decompressed if the server sent it gzip encoded.
+     */
+    private static InputStream responseStream(Response response) throws IOException {
+        InputStream in = response.body().byteStream();
+        if ("gzip".equalsIgnoreCase(response.header("Content-Encoding"))) {
+            return Gzip.decompress(in);
+        }
+        return in;
+    }
+
+    /**
+     * Get the codec for a request or response class. A codec generated at compile time is used
+     * when available, otherwise the annotated fields are resolved once through reflection.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Codec<T> getCodec(Class<?> clazz) {
+        Codec<?> codec = codecs.get(clazz);
+        if (codec == null) {
+            codec = loadCodec(clazz);
+            codecs.put(clazz, codec);
+        }
+        return (Codec<T>) codec;
+    }
+
+    private static Codec<?> loadCodec(Class<?> clazz) {
+        try {
+            return (Codec<?>) Class.forName(clazz.getName() + CODEC_SUFFIX, true, clazz.getClassLoader()).getConstructor().newInstance();
+        } catch (Exception e) {
+            Log.d(TAG, "No generated codec for " + clazz.getName() + ", using reflection");
+            return new ReflectiveFormCodec<>(clazz);
+        }
+    }
+
+    /**
+     * Configure the shared executor used by {@link #requestAsync}. At most {@code maxThreads} requests run
+     * concurrently and up to {@code queueCapacity} more are queued, further requests are handled according
+     * to {@code policy}. Requests already queued on the previous executor still complete.
+     */
+    public static synchronized void setAsyncLimits(int maxThreads, int queueCapacity, RejectionPolicy policy) {
+        ThreadPoolExecutor previous = asyncExecutor;
+        asyncExecutor = createAsyncExecutor(maxThreads, queueCapacity, policy);
+        if (previous != null) previous.shutdown();
+    }
+
+    private static synchronized ThreadPoolExecutor getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            asyncExecutor = createAsyncExecutor(DEFAULT_ASYNC_THREADS, DEFAULT_ASYNC_QUEUE_CAPACITY, RejectionPolicy.REJECT);
+        }
+        return asyncExecutor;
+    }
+
+    private static ThreadPoolExecutor createAsyncExecutor(int maxThreads, int queueCapacity, RejectionPolicy policy) {
+        RejectedExecutionHandler handler;
+        switch (policy) {
+            case CALLER_RUNS:
+                handler = new ThreadPoolExecutor.CallerRunsPolicy();
+                break;
+            case DROP_OLDEST:
+                handler = (runnable, executor) -> {
+                    if (executor.isShutdown()) throw new RejectedExecutionException("Executor shut down");
+                    Runnable oldest = executor.getQueue().poll();
+                    if (oldest instanceof Future) ((Future<?>) oldest).cancel(false);
+                    executor.execute(runnable);
+                };
+                break;
+            default:
+                handler = new ThreadPoolExecutor.AbortPolicy();
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, ASYNC_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), runnable -> new Thread(runnable, "HttpFormClient-" + threadNumber.incrementAndGet()), handler);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public static <T> Future<T> requestAsync(String url, Request request, Class<T> tClass) {
+        return requestAsync(url, request, tClass, null);
+    }
+
+    /**
+     * Run the request on the shared bounded executor. Cancelling the returned future also cancels
+     * the HTTP call. If the request is rejected or cancelled, the callback receives the exception.
+     */
+    public static <T> Future<T> requestAsync(String url, Request request, Class<T> tClass, Callback<T> callback) {
+        return requestAsync(getAsyncExecutor(), url, request, tClass, callback);
+    }
+
+    static <T> Future<T> requestAsync(Executor executor, String url, Request request, Class<T> tClass, Callback<T> callback) {
+        AsyncRequest<T> future = new AsyncRequest<>(url, request, tClass, callback);
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            future.fail(e);
+        }
+        return future;
+    }
+
+    private static class AsyncRequest<T> extends FutureTask<T> {
+        private final Callback<T> callback;
+        private volatile Call call;
+
+        AsyncRequest(String url, Request request, Class<T> tClass, Callback<T> callback) {
+            this(new RequestCallable<>(url, request, tClass), callback);
+        }
+
+        private AsyncRequest(RequestCallable<T> callable, Callback<T> callback) {
+            super(callable);
+            callable.owner = this;
+            this.callback = callback;
+        }
+
+        void setCall(Call call) {
+            this.call = call;
+            if (isCancelled()) call.cancel();
+        }
+
+        void fail(Exception e) {
+            setException(e);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Call call = this.call;
+            if (cancelled && call != null) call.cancel();
+            return cancelled;
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null) return;
+            try {
+                callback.onResponse(get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                callback.onException(cause instanceof Exception ? (Exception) cause : e);
+            } catch (CancellationException | InterruptedException e) {
+                callback.onException(e);
             }
-        }).start();
+        }
+    }
+
+    private static class RequestCallable<T> implements Callable<T> {
+        private final String url;
+        private final Request request;
+        private final Class<T> tClass;
+        private AsyncRequest<T> owner;
+
+        RequestCallable(String url, Request request, Class<T> tClass) {
+            this.url = url;
+            this.request = request;
+            this.tClass = tClass;
+        }
+
+        @Override
+        public T call() throws IOException {
+            return request(url, request, tClass, owner);
+        }
+    }
+
+    /**
+     * What to do with a request to {@link #requestAsync} when all threads are busy and the queue is full.
+     */
+    public enum RejectionPolicy {
+        /** Fail the new request with a {@link RejectedExecutionException}. */
+        REJECT,
+        /** Run the new request on the calling thread. */
+        CALLER_RUNS,
+        /** Cancel the oldest queued request and queue the new one. */
+        DROP_OLDEST
     }
 
     public static abstract class Request {
@@ -213,6 +328,57 @@ public class HttpFormClient {
         }
     }
 
+    /**
+     * Reads and writes the annotated fields of a class without reflection.
+     * Implementations named {@code <Class>$000FormCodec} are generated by the annotation processor.
+     */
+    public interface Codec<T> {
+        void writeRequest(T request, FormWriter writer);
+
+        T newInstance() throws Exception;
+
+        /**
+         * Set all fields mapped to {@code key}.
+         *
+         * @return false if no field is mapped to {@code key}.
+         */
+        boolean readField(T response, String key, String value);
+
+        void readMeta(T response, Response httpResponse);
+    }
+
+    public static final class FormWriter {
+        final Headers.Builder headers = new Headers.Builder();
+        final StringBuilder content = new StringBuilder();
+
+        FormWriter() {
+        }
+
+        public void header(String key, String value) {
+            try {
+                headers.set(key, String.valueOf(value));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Invalid header " + key, e);
+            }
+        }
+
+        public void content(String key, String value) {
+            if (content.length() > 0)
+                content.append("&");
+            content.append(Uri.encode(key)).append("=").append(Uri.encode(String.valueOf(value)));
+        }
+
+        public static String flag(boolean value, boolean truePresent, boolean falsePresent) {
+            if (value && truePresent) {
+                return "1";
+            } else if (!value && falsePresent) {
+                return "0";
+            } else {
+                return null;
+            }
+        }
+    }
+
     public interface Callback<T> {
         void onResponse(T response);
 
@@ -0,0 +1,101 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.common;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries idempotent requests on network errors and transient server errors, with capped exponential
+ * backoff and jitter, guarded by the {@link CircuitBreaker} of the target host.
+ */
+public final class HttpRetry {
+    private static final String TAG = "GmsHttpRetry";
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BASE_DELAY_MS = 250;
+    private static final long MAX_DELAY_MS = 4000;
+
+    private static final AtomicLong retries = new AtomicLong();
+
+    private HttpRetry() {
+    } // Prevent instantiation
+
+    public interface Call<T> {
+        T execute() throws IOException;
+    }
+
+    public static long getRetryCount() {
+        return retries.get();
+    }
+
+    public static <T> T execute(String url, Call<T> call) throws IOException {
+        return execute(url, RequestBudget.UNLIMITED, call);
+    }
+
+    /**
+     * @param budget Charged for every retry. If it is used up, the last failure is thrown instead of retrying.
+     */
+    public static <T> T execute(String url, RequestBudget budget, Call<T> call) throws IOException {
+        String host = Uri.parse(url).getHost();
+        CircuitBreaker breaker = CircuitBreaker.forHost(host);
+        for (int attempt = 1; ; attempt++) {
+            if (!breaker.tryAcquire()) {
+                throw new CircuitOpenException(host);
+            }
+            try {
+                T result = call.execute();
+                breaker.onSuccess();
+                return result;
+            } catch (HttpStatusException e) {
+                if (!e.isTransient()) {
+                    breaker.onSuccess();
+                    throw e;
+                }
+                breaker.onFailure();
+                if (attempt >= MAX_ATTEMPTS || !budget.tryAcquire()) throw e;
+                Log.w(TAG, "Attempt " + attempt + " to " + host + " failed with status " + e.getStatusCode());
+            } catch (InterruptedIOException e) {
+                if (!(e instanceof SocketTimeoutException)) {
+                    breaker.release();
+                    throw e;
+                }
+                breaker.onFailure();
+                if (attempt >= MAX_ATTEMPTS || !budget.tryAcquire()) throw e;
+                Log.w(TAG, "Attempt " + attempt + " to " + host + " timed out");
+            } catch (IOException e) {
+                breaker.onFailure();
+                if (attempt >= MAX_ATTEMPTS || !budget.tryAcquire()) throw e;
+                Log.w(TAG, "Attempt " + attempt + " to " + host + " failed: " + e);
+            } catch (RuntimeException e) {
+                // A bug in the caller, not a sign of an unhealthy host
+                breaker.release();
+                throw e;
+            }
+            retries.incrementAndGet();
+            sleep(backoffMillis(attempt));
+        }
+    }
+
+    private static long backoffMillis(int attempt) {
+        long delay = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << (attempt - 1));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during retry backoff");
+        }
+    }
+}
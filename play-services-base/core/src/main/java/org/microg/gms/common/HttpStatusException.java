@@ -0,0 +1,31 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.common;
+
+import java.io.IOException;
+
+/**
+ * The server answered with an unexpected HTTP status code. The message is the response body if available.
+ */
+public class HttpStatusException extends IOException {
+    private final int statusCode;
+
+    public HttpStatusException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Whether the status indicates a temporary server-side problem that may succeed when retried.
+     */
+    public boolean isTransient() {
+        return statusCode == 429 || statusCode >= 500;
+    }
+}
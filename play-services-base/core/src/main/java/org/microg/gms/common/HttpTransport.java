@@ -0,0 +1,65 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.common;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+/**
+ * Shared HTTP transport for requests to Google servers.
+ * All clients use the same connection pool, so connections to the auth and checkin
+ * hosts are kept alive, multiplexed over HTTP/2 where supported and TLS sessions are
+ * resumed instead of performing a full handshake for every request.
+ */
+public final class HttpTransport {
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final long DEFAULT_CONNECT_TIMEOUT_MS = 15000;
+    private static final long DEFAULT_READ_TIMEOUT_MS = 30000;
+    private static final long DEFAULT_WRITE_TIMEOUT_MS = 30000;
+
+    private static final ConnectionPool connectionPool = new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES);
+    private static volatile OkHttpClient client;
+
+    private HttpTransport() {
+    } // Prevent instantiation
+
+    public static OkHttpClient getClient() {
+        if (client == null) {
+            synchronized (HttpTransport.class) {
+                if (client == null) {
+                    client = buildClient(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS, DEFAULT_WRITE_TIMEOUT_MS);
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Close all idle pooled connections, e.g. because they belong to a network that is no longer in use.
+     */
+    public static void evictConnections() {
+        connectionPool.evictAll();
+    }
+
+    /**
+     * Change the timeouts used by all subsequent requests. Pooled connections are kept.
+     */
+    public static synchronized void setTimeouts(long connectTimeoutMs, long readTimeoutMs, long writeTimeoutMs) {
+        client = buildClient(connectTimeoutMs, readTimeoutMs, writeTimeoutMs);
+    }
+
+    private static OkHttpClient buildClient(long connectTimeoutMs, long readTimeoutMs, long writeTimeoutMs) {
+        return new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(writeTimeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+}
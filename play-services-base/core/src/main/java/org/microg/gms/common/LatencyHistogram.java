@@ -0,0 +1,81 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.common;
+
+import android.os.Bundle;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed millisecond buckets.
+ */
+public class LatencyHistogram {
+    private static final long[] BUCKET_BOUNDS_MS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    /**
+     * Record a duration measured with {@link System#nanoTime()}.
+     */
+    public void record(long nanos) {
+        long millis = nanos / 1000000L;
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MS.length && millis > BUCKET_BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sumNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Record the time elapsed since {@code startNanos}, as returned by {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Estimate a quantile as the upper bound of the bucket that contains it.
+     *
+     * @param quantile Quantile between 0 and 1, e.g. 0.95.
+     * @return The estimate in milliseconds, {@link Long#MAX_VALUE} if it is above the largest bucket
+     * or -1 if nothing was recorded.
+     */
+    public long quantileMillis(double quantile) {
+        long total = count.get();
+        if (total == 0) return -1;
+        long rank = (long) Math.ceil(quantile * total);
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+            cumulative += buckets.get(i);
+            if (cumulative >= rank) return BUCKET_BOUNDS_MS[i];
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Write the histogram into a bundle, using cumulative {@code le_<ms>} bucket counts.
+     */
+    public void writeTo(Bundle bundle, String prefix) {
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+            cumulative += buckets.get(i);
+            bundle.putLong(prefix + ".le_" + BUCKET_BOUNDS_MS[i] + "ms", cumulative);
+        }
+        cumulative += buckets.get(BUCKET_BOUNDS_MS.length);
+        bundle.putLong(prefix + ".le_inf", cumulative);
+        bundle.putLong(prefix + ".count", count.get());
+        bundle.putLong(prefix + ".sum_ms", sumNanos.get() / 1000000L);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.common;
+
+import android.util.Log;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Response;
+
+/**
+ * Fallback {@link HttpFormClient.Codec} for classes without a generated codec.
+ * The annotated fields are looked up once per class, response keys are resolved through a hash map.
+ */
+class ReflectiveFormCodec<T> implements HttpFormClient.Codec<T> {
+    private static final String TAG = "GmsHttpFormClient";
+
+    private final Class<T> clazz;
+    private final List<Field> requestFields = new ArrayList<>();
+    private final Map<String, List<Field>> responseFields = new HashMap<>();
+    private final List<Field> metaFields = new ArrayList<>();
+    private Constructor<T> constructor;
+
+    ReflectiveFormCodec(Class<T> clazz) {
+        this.clazz = clazz;
+        for (Field field : clazz.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) continue;
+            boolean request = field.isAnnotationPresent(HttpFormClient.RequestContentDynamic.class) ||
+                    field.isAnnotationPresent(HttpFormClient.RequestHeader.class) ||
+                    field.isAnnotationPresent(HttpFormClient.RequestContent.class);
+            boolean meta = field.isAnnotationPresent(HttpFormClient.ResponseHeader.class) ||
+                    field.isAnnotationPresent(HttpFormClient.ResponseStatusCode.class) ||
+                    field.isAnnotationPresent(HttpFormClient.ResponseStatusText.class);
+            HttpFormClient.ResponseField responseField = field.getAnnotation(HttpFormClient.ResponseField.class);
+            if (!request && !meta && responseField == null) continue;
+            try {
+                field.setAccessible(true);
+            } catch (Exception e) {
+                Log.w(TAG, e);
+                continue;
+            }
+            if (request) requestFields.add(field);
+            if (meta) metaFields.add(field);
+            if (responseField != null) {
+                List<Field> fields = responseFields.get(responseField.value());
+                if (fields == null) {
+                    fields = new ArrayList<>(1);
+                    responseFields.put(responseField.value(), fields);
+                }
+                fields.add(field);
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void writeRequest(T request, HttpFormClient.FormWriter writer) {
+        for (Field field : requestFields) {
+            try {
+                Object objVal = field.get(request);
+                if (field.isAnnotationPresent(HttpFormClient.RequestContentDynamic.class)) {
+                    Map<String, String> contentParams = (Map<String, String>) objVal;
+                    for (Map.Entry<String, String> param : contentParams.entrySet()) {
+                        writer.content(param.getKey(), param.getValue());
+                    }
+                    continue;
+                }
+                String value = objVal != null ? String.valueOf(objVal) : null;
+                boolean isBoolean = field.getType().equals(boolean.class);
+                HttpFormClient.RequestHeader header = field.getAnnotation(HttpFormClient.RequestHeader.class);
+                if (header != null) {
+                    String headerValue = isBoolean ? HttpFormClient.FormWriter.flag((Boolean) objVal, header.truePresent(), header.falsePresent()) : value;
+                    if (headerValue != null || header.nullPresent()) {
+                        for (String key : header.value()) {
+                            writer.header(key, headerValue);
+                        }
+                    }
+                }
+                HttpFormClient.RequestContent content = field.getAnnotation(HttpFormClient.RequestContent.class);
+                if (content != null) {
+                    String contentValue = isBoolean ? HttpFormClient.FormWriter.flag((Boolean) objVal, content.truePresent(), content.falsePresent()) : value;
+                    if (contentValue != null || content.nullPresent()) {
+                        for (String key : content.value()) {
+                            writer.content(key, contentValue);
+                        }
+                    }
+                }
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    @Override
+    public T newInstance() throws Exception {
+        if (constructor == null) {
+            constructor = clazz.getConstructor();
+        }
+        return constructor.newInstance();
+    }
+
+    @Override
+    public boolean readField(T response, String key, String value) {
+        List<Field> fields = responseFields.get(key);
+        if (fields == null) return false;
+        for (Field field : fields) {
+            setField(response, field, value);
+        }
+        return true;
+    }
+
+    @Override
+    public void readMeta(T response, Response httpResponse) {
+        for (Field field : metaFields) {
+            HttpFormClient.ResponseHeader header = field.getAnnotation(HttpFormClient.ResponseHeader.class);
+            if (header != null) {
+                List<String> strings = httpResponse.headers(header.value());
+                if (strings.size() == 1) {
+                    setField(response, field, strings.get(0));
+                }
+            }
+            try {
+                if (field.isAnnotationPresent(HttpFormClient.ResponseStatusCode.class) && field.getType() == int.class) {
+                    field.setInt(response, httpResponse.code());
+                }
+                if (field.isAnnotationPresent(HttpFormClient.ResponseStatusText.class) && field.getType() == String.class) {
+                    field.set(response, httpResponse.message());
+                }
+            } catch (IllegalAccessException e) {
+                Log.w(TAG, e);
+            }
+        }
+    }
+
+    private static void setField(Object response, Field field, String value) {
+        try {
+            if (field.getType().equals(String.class)) {
+                field.set(response, value);
+            } else if (field.getType().equals(boolean.class)) {
+                field.setBoolean(response, value.equals("1"));
+            } else if (field.getType().equals(long.class)) {
+                field.setLong(response, Long.parseLong(value));
+            } else if (field.getType().equals(int.class)) {
+                field.setInt(response, Integer.parseInt(value));
+            }
+        } catch (Exception e) {
+            Log.w(TAG, e);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.common;
+
+/**
+ * Budget for the additional network attempts of a request, i.e. retries by {@link HttpRetry} and
+ * duplicates sent by {@link HedgedRequest}. The first attempt is not charged.
+ */
+public interface RequestBudget {
+    RequestBudget UNLIMITED = () -> true;
+
+    /**
+     * @return true if another attempt may be sent now. The attempt is charged to the budget.
+     */
+    boolean tryAcquire();
+
+    /**
+     * Return a permit taken by {@link #tryAcquire()} for an attempt that could not be sent.
+     */
+    default void refund() {
+    }
+}
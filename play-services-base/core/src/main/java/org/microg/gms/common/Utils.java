@@ -28,6 +28,12 @@ import java.util.Locale;
 import static android.content.pm.PackageManager.PERMISSION_GRANTED;
 
 public class Utils {
+    private static final ThreadLocal<byte[]> readBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[8192];
+        }
+    };
 
     public static Locale getLocale(Context context) {
         return Locale.getDefault(); // TODO
@@ -56,11 +62,11 @@ public class Utils {
     public static byte[] readStreamToEnd(final InputStream is) throws IOException {
         final ByteArrayOutputStream bos = new ByteArrayOutputStream();
         if (is != null) {
-            final byte[] buff = new byte[1024];
+            final byte[] buff = readBuffers.get();
             int read;
-            do {
-                bos.write(buff, 0, (read = is.read(buff)) < 0 ? 0 : read);
-            } while (read >= 0);
+            while ((read = is.read(buff)) >= 0) {
+                bos.write(buff, 0, read);
+            }
             is.close();
         }
         return bos.toByteArray();
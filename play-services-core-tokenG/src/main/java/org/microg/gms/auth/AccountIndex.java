@@ -0,0 +1,102 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.auth;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.accounts.OnAccountsUpdateListener;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static android.os.Build.VERSION.SDK_INT;
+
+/**
+ * In-process index of microG accounts by case-folded name.
+ * Filled once and kept up to date through {@link OnAccountsUpdateListener}, so
+ * looking up an existing account does not require a call into the system AccountManager.
+ * Updates arrive asynchronously on the main thread, so a miss is checked against the
+ * AccountManager before it is reported. Only the listener writes the index.
+ */
+public class AccountIndex implements OnAccountsUpdateListener {
+    private static final String TAG = "GmsAccountIndex";
+    private static volatile AccountIndex instance;
+
+    private final AccountManager accountManager;
+    private volatile Map<String, Account> accounts = Collections.emptyMap();
+
+    private AccountIndex(Context context) {
+        accountManager = AccountManager.get(context);
+        Handler handler = new Handler(Looper.getMainLooper());
+        if (SDK_INT >= 26) {
+            accountManager.addOnAccountsUpdatedListener(this, handler, false,
+                    new String[]{AuthConstants.DEFAULT_ACCOUNT_TYPE});
+        } else {
+            accountManager.addOnAccountsUpdatedListener(this, handler, false);
+        }
+        onAccountsUpdated(accountManager.getAccountsByType(AuthConstants.DEFAULT_ACCOUNT_TYPE));
+    }
+
+    public static AccountIndex get(Context context) {
+        if (instance == null) {
+            synchronized (AccountIndex.class) {
+                if (instance == null) {
+                    instance = new AccountIndex(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    @Override
+    public void onAccountsUpdated(Account[] updatedAccounts) {
+        Map<String, Account> index = new HashMap<>();
+        for (Account account : updatedAccounts) {
+            if (AuthConstants.DEFAULT_ACCOUNT_TYPE.equals(account.type)) {
+                index.put(fold(account.name), account);
+            }
+        }
+        Log.d(TAG, "Indexed " + index.size() + " accounts");
+        accounts = index;
+    }
+
+    /**
+     * Find an account by name, ignoring case.
+     *
+     * @return The account, or null if there is no such account.
+     */
+    public Account find(String name) {
+        if (name == null) {
+            return null;
+        }
+        Account account = accounts.get(fold(name));
+        if (account == null) {
+            // The account may have been added before the update reached us. The index is left to
+            // the listener, publishing this lookup could overwrite a newer update.
+            String folded = fold(name);
+            for (Account candidate : accountManager.getAccountsByType(AuthConstants.DEFAULT_ACCOUNT_TYPE)) {
+                if (folded.equals(fold(candidate.name))) {
+                    return candidate;
+                }
+            }
+        }
+        return account;
+    }
+
+    public boolean contains(String name) {
+        return find(name) != null;
+    }
+
+    private static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
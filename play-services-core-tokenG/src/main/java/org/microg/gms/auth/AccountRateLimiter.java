@@ -0,0 +1,150 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.auth;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.microg.gms.common.RequestBudget;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Token bucket per account that limits how often tokens are minted from the auth server.
+ * Callers reserve a permit and wait for it up to a deadline, so queued callers are served in order
+ * of arrival instead of racing the network. If the wait would exceed the deadline the caller is
+ * rejected with {@link RateLimitExceededException}. Retries and hedged duplicates also take a permit,
+ * but are dropped instead of waiting for one, see {@link #budget}.
+ */
+public class AccountRateLimiter {
+    private static final String TAG = "GmsAccountRateLimiter";
+    private static final String PREFS_NAME = "token_rate_limit";
+    private static final String KEY_PER_MINUTE = "per_minute";
+    private static final String KEY_BURST = "burst";
+    private static final float DEFAULT_PER_MINUTE = 30;
+    private static final int DEFAULT_BURST = 10;
+
+    private static volatile AccountRateLimiter instance;
+
+    private final SharedPreferences prefs;
+    private final Map<String, Bucket> buckets = new HashMap<>();
+    private double permitsPerNano;
+    private int burst;
+
+    private AccountRateLimiter(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        applyLimits(prefs.getFloat(KEY_PER_MINUTE, DEFAULT_PER_MINUTE), prefs.getInt(KEY_BURST, DEFAULT_BURST));
+    }
+
+    public static AccountRateLimiter get(Context context) {
+        if (instance == null) {
+            synchronized (AccountRateLimiter.class) {
+                if (instance == null) {
+                    instance = new AccountRateLimiter(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Allow on average {@code perMinute} requests per minute and account, with bursts of up to {@code burst}.
+     */
+    public void setLimits(float perMinute, int burst) {
+        if (perMinute <= 0 || burst < 1) throw new IllegalArgumentException("Invalid rate limit");
+        prefs.edit().putFloat(KEY_PER_MINUTE, perMinute).putInt(KEY_BURST, burst).apply();
+        applyLimits(perMinute, burst);
+    }
+
+    private synchronized void applyLimits(float perMinute, int burst) {
+        this.permitsPerNano = perMinute / 60e9;
+        this.burst = burst;
+        buckets.clear();
+    }
+
+    /**
+     * Take a permit for the account, waiting at most {@code timeoutMs} for it to become available.
+     *
+     * @throws RateLimitExceededException if no permit becomes available in time.
+     */
+    public void acquire(String email, long timeoutMs) throws RateLimitExceededException, InterruptedException {
+        long waitNanos = reserve(email.toLowerCase(Locale.ROOT), timeoutMs * 1000000L);
+        if (waitNanos > 0) {
+            Log.d(TAG, "Delaying request for " + waitNanos / 1000000L + "ms");
+            Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+        }
+    }
+
+    /**
+     * Take a permit for the account if one is available right away, without queueing behind waiting callers.
+     */
+    public synchronized boolean tryAcquire(String email) {
+        Bucket bucket = refill(email.toLowerCase(Locale.ROOT));
+        if (bucket.permits < 1) return false;
+        bucket.permits -= 1;
+        return true;
+    }
+
+    /**
+     * Budget for the retries and hedged duplicates of a request for the account, each takes a permit.
+     */
+    public RequestBudget budget(String email) {
+        return new RequestBudget() {
+            @Override
+            public boolean tryAcquire() {
+                if (AccountRateLimiter.this.tryAcquire(email)) return true;
+                Log.d(TAG, "No permit for an additional attempt");
+                return false;
+            }
+
+            @Override
+            public void refund() {
+                release(email);
+            }
+        };
+    }
+
+    private synchronized void release(String email) {
+        Bucket bucket = refill(email.toLowerCase(Locale.ROOT));
+        bucket.permits = Math.min(burst, bucket.permits + 1);
+    }
+
+    private synchronized long reserve(String key, long timeoutNanos) throws RateLimitExceededException {
+        Bucket bucket = refill(key);
+        long waitNanos = bucket.permits >= 1 ? 0 : (long) Math.ceil((1 - bucket.permits) / permitsPerNano);
+        if (waitNanos > timeoutNanos) {
+            throw new RateLimitExceededException(waitNanos / 1000000L);
+        }
+        // Permits may go negative: later callers then queue behind this reservation
+        bucket.permits -= 1;
+        return waitNanos;
+    }
+
+    private Bucket refill(String key) {
+        long now = System.nanoTime();
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new Bucket(burst, now);
+            buckets.put(key, bucket);
+        }
+        bucket.permits = Math.min(burst, bucket.permits + (now - bucket.updatedNanos) * permitsPerNano);
+        bucket.updatedNanos = now;
+        return bucket;
+    }
+
+    private static class Bucket {
+        double permits;
+        long updatedNanos;
+
+        Bucket(double permits, long updatedNanos) {
+            this.permits = permits;
+            this.updatedNanos = updatedNanos;
+        }
+    }
+}
@@ -164,6 +164,9 @@ public class AuthManager {
     }
 
     public boolean accountExists() {
+        if (AuthConstants.DEFAULT_ACCOUNT_TYPE.equals(getAccountType())) {
+            return AccountIndex.get(context).contains(accountName);
+        }
         for (Account refAccount : getAccountManager().getAccountsByType(accountType)) {
             if (refAccount.name.equalsIgnoreCase(accountName))
                 return true;
@@ -249,6 +252,15 @@ public class AuthManager {
     }
 
     public AuthResponse requestAuth(boolean legacy) throws IOException {
+        AuthResponse response = getStoredResponse();
+        if (response != null) return response;
+        return handleResponse(buildAuthRequest(legacy).getResponse());
+    }
+
+    /**
+     * @return the response that can be answered without a network request, or null if the server has to be asked.
+     */
+    public AuthResponse getStoredResponse() {
         if (service.equals(AuthConstants.SCOPE_GET_ACCOUNT_ID)) {
             AuthResponse response = new AuthResponse();
             response.accountId = response.auth = getAccountManager().getUserData(getAccount(), "GoogleUserId");
@@ -267,6 +279,10 @@ public class AuthManager {
                 return response;
             }
         }
+        return null;
+    }
+
+    public AuthRequest buildAuthRequest(boolean legacy) {
         AuthRequest request = new AuthRequest().fromContext(context)
                 .source("android")
                 .app(packageName, getPackageSignature())
@@ -287,7 +303,13 @@ public class AuthManager {
         } else {
             request.callerIsApp();
         }
-        AuthResponse response = request.getResponse();
+        return request;
+    }
+
+    /**
+     * Store the response to a request from {@link #buildAuthRequest}, or drop its token if the app is not permitted.
+     */
+    public AuthResponse handleResponse(AuthResponse response) {
         if (!isPermitted() && !isTrustGooglePermitted(context)) {
             response.auth = null;
         } else {
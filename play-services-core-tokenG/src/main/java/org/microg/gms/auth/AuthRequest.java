@@ -10,13 +10,17 @@ import android.content.Context;
 import org.microg.gms.checkin.LastCheckinInfo;
 import org.microg.gms.profile.Build;
 import org.microg.gms.common.Constants;
+import org.microg.gms.common.HedgedRequest;
 import org.microg.gms.common.HttpFormClient;
+import org.microg.gms.common.HttpRetry;
+import org.microg.gms.common.RequestBudget;
 import org.microg.gms.common.Utils;
 import org.microg.gms.profile.ProfileManager;
 import org.microg.gms.settings.SettingsContract;
 
 import java.io.IOException;
 import java.util.Locale;
+import java.util.concurrent.Future;
 
 import static org.microg.gms.common.HttpFormClient.RequestContent;
 import static org.microg.gms.common.HttpFormClient.RequestHeader;
@@ -26,7 +30,7 @@ public class AuthRequest extends HttpFormClient.Request {
     private static final String USER_AGENT = "GoogleAuth/1.4 (%s %s); gzip";
 
     @RequestHeader("User-Agent")
-    private String userAgent;
+    String userAgent;
 
     @RequestHeader("app")
     @RequestContent("app")
@@ -96,6 +100,8 @@ public class AuthRequest extends HttpFormClient.Request {
     public String oauth2IncludeEmail;
     public String deviceName;
     public String buildVersion;
+    private boolean hedged;
+    private RequestBudget budget = RequestBudget.UNLIMITED;
 
     @Override
     protected void prepare() {
@@ -245,11 +251,33 @@ public class AuthRequest extends HttpFormClient.Request {
         return this;
     }
 
+    /**
+     * Send a duplicate request if the response to the first attempt is unusually slow, see {@link HedgedRequest}.
+     */
+    public AuthRequest hedged() {
+        this.hedged = true;
+        return this;
+    }
+
+    /**
+     * Only send retries and hedged duplicates while {@code budget} allows, e.g. the account's rate limit.
+     */
+    public AuthRequest budget(RequestBudget budget) {
+        this.budget = budget;
+        return this;
+    }
+
     public AuthResponse getResponse() throws IOException {
-        return HttpFormClient.request(SERVICE_URL, this, AuthResponse.class);
+        // Only the first attempt is hedged, retries are plain requests
+        boolean[] hedge = {hedged};
+        return HttpRetry.execute(SERVICE_URL, budget, () -> {
+            if (!hedge[0]) return HttpFormClient.request(SERVICE_URL, this, AuthResponse.class);
+            hedge[0] = false;
+            return HedgedRequest.request(SERVICE_URL, this, AuthResponse.class, budget);
+        });
     }
 
-    public void getResponseAsync(HttpFormClient.Callback<AuthResponse> callback) {
-        HttpFormClient.requestAsync(SERVICE_URL, this, AuthResponse.class, callback);
+    public Future<AuthResponse> getResponseAsync(HttpFormClient.Callback<AuthResponse> callback) {
+        return HttpFormClient.requestAsync(SERVICE_URL, this, AuthResponse.class, callback);
     }
 }
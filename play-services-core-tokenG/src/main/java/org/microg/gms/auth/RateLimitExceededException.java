@@ -0,0 +1,34 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.auth;
+
+/**
+ * The per-account token request budget of {@link AccountRateLimiter} is exhausted.
+ */
+public class RateLimitExceededException extends Exception {
+    /**
+     * Prefix of error strings returned to callers that were rate limited.
+     */
+    public static final String ERROR_PREFIX = "ERROR: RATE_LIMITED";
+
+    private final long retryAfterMs;
+
+    public RateLimitExceededException(long retryAfterMs) {
+        super("Too many token requests for this account, retry after " + retryAfterMs + "ms");
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    /**
+     * The error string returned to callers, starting with {@link #ERROR_PREFIX}.
+     */
+    public String toErrorString() {
+        return ERROR_PREFIX + " - " + getMessage();
+    }
+}
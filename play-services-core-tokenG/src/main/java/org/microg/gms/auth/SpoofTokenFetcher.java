@@ -34,6 +34,9 @@ public class SpoofTokenFetcher {
     public static final String DRIVE_SCOPE = "oauth2:https://www.googleapis.com/auth/drive";
     public static final String CALENDAR_SCOPE = "oauth2:https://www.googleapis.com/auth/calendar";
 
+    // Longest time a request waits for the account's rate limit before it is rejected
+    private static final long RATE_LIMIT_WAIT_MS = 10000;
+
     // Standard service string used to get the Master Token in microG
     private static final String MASTER_TOKEN_SERVICE = "android";
 
@@ -110,7 +113,10 @@ public class SpoofTokenFetcher {
                     .systemPartition(true) // Claim to be system app
                     .hasPermission(true); // Already have permission
 
-            // 3. Execute the request to Google's auth server
+            // 3. Execute the request to Google's auth server, within the account's rate limit
+            AccountRateLimiter rateLimiter = AccountRateLimiter.get(context);
+            rateLimiter.acquire(account.name, RATE_LIMIT_WAIT_MS);
+            request.budget(rateLimiter.budget(account.name));
             Log.i(TAG, "Sending request to Google auth server...");
             AuthResponse response = request.getResponse();
 
@@ -129,6 +135,9 @@ public class SpoofTokenFetcher {
             } else {
                 return "ERROR: Null response from Google server";
             }
+        } catch (RateLimitExceededException e) {
+            Log.w(TAG, "Token fetch rate limited: " + e.getMessage());
+            return e.toErrorString();
         } catch (Exception e) {
             Log.e(TAG, "Exception during token fetch", e);
             return "ERROR: " + e.getClass().getSimpleName() + " - " + e.getMessage();
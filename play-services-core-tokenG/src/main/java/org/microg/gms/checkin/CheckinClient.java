@@ -21,6 +21,8 @@ import android.util.Log;
 
 import org.microg.gms.common.DeviceConfiguration;
 import org.microg.gms.common.DeviceIdentifier;
+import org.microg.gms.common.Gzip;
+import org.microg.gms.common.HttpTransport;
 import org.microg.gms.common.PhoneInfo;
 import org.microg.gms.common.Utils;
 import org.microg.gms.profile.Build;
@@ -28,9 +30,6 @@ import org.microg.gms.profile.ProfileManager;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -39,8 +38,10 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Random;
 import java.util.TimeZone;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.Response;
 
 public class CheckinClient {
     private static final String TAG = "GmsCheckinClient";
@@ -48,34 +49,36 @@ public class CheckinClient {
     private static final List<String> TODO_LIST_STRING = new ArrayList<>(); // TODO
     private static final List<CheckinRequest.Checkin.Statistic> TODO_LIST_CHECKIN = new ArrayList<>(); // TODO
     private static final String SERVICE_URL = "https://android.clients.google.com/checkin";
+    private static final MediaType CONTENT_TYPE = MediaType.get("application/x-protobuffer");
 
     public static CheckinResponse request(CheckinRequest request) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) new URL(SERVICE_URL).openConnection();
-        connection.setRequestMethod("POST");
-        connection.setDoInput(true);
-        connection.setDoOutput(true);
-        connection.setRequestProperty("Content-type", "application/x-protobuffer");
-        connection.setRequestProperty("Content-Encoding", "gzip");
-        connection.setRequestProperty("Accept-Encoding", "gzip");
-        connection.setRequestProperty("User-Agent", "Android-Checkin/2.0 (vbox86p JLS36G); gzip");
+        return request(SERVICE_URL, request);
+    }
 
+    static CheckinResponse request(String url, CheckinRequest request) throws IOException {
         Log.d(TAG, "-- Request --\n" + request);
-        OutputStream os = new GZIPOutputStream(connection.getOutputStream());
-        os.write(request.encode());
-        os.close();
 
-        if (connection.getResponseCode() != 200) {
-            try {
-                throw new IOException(new String(Utils.readStreamToEnd(new GZIPInputStream(connection.getErrorStream()))));
-            } catch (Exception e) {
-                throw new IOException(connection.getResponseMessage(), e);
+        okhttp3.Request httpRequest = new okhttp3.Request.Builder()
+                .url(url)
+                .header("Content-Encoding", "gzip")
+                .header("Accept-Encoding", "gzip")
+                .header("User-Agent", "Android-Checkin/2.0 (vbox86p JLS36G); gzip")
+                .post(RequestBody.create(Gzip.compress(request.encode()), CONTENT_TYPE))
+                .build();
+
+        try (Response response = HttpTransport.getClient().newCall(httpRequest).execute()) {
+            if (response.code() != 200) {
+                try (InputStream in = Gzip.decompress(response.body().byteStream())) {
+                    throw new IOException(new String(Utils.readStreamToEnd(in)));
+                } catch (Exception e) {
+                    throw new IOException(response.message(), e);
+                }
             }
-        }
 
-        InputStream is = connection.getInputStream();
-        CheckinResponse response = CheckinResponse.ADAPTER.decode(new GZIPInputStream(is));
-        is.close();
-        return response;
+            try (InputStream is = Gzip.decompress(response.body().byteStream())) {
+                return CheckinResponse.ADAPTER.decode(is);
+            }
+        }
     }
 
     public static CheckinRequest makeRequest(Context context, DeviceConfiguration deviceConfiguration,
@@ -0,0 +1,91 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.checkin;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Delta checkin: the device configuration is only sent again if it changed since the server last
+ * acknowledged it. Acknowledged configurations are remembered as a hash of their encoded message,
+ * together with the android ID they were sent for. A full checkin is still sent once a week.
+ */
+class CheckinDelta {
+    private static final String TAG = "GmsCheckinDelta";
+    private static final String PREFERENCES_NAME = "checkin_delta";
+    private static final String PREF_ANDROID_ID = "android_id";
+    private static final String PREF_DEVICE_CONFIG_HASH = "device_config_hash";
+    private static final String PREF_ACKNOWLEDGED = "acknowledged";
+    private static final long FULL_CHECKIN_INTERVAL = 7 * 24 * 60 * 60 * 1000L; // 1 week
+
+    private final SharedPreferences preferences;
+    private String deviceConfigHash;
+    private boolean sentDeviceConfig;
+
+    CheckinDelta(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @param full Send all sections, even if the server already acknowledged them.
+     * @return The request, without sections the server already acknowledged.
+     */
+    CheckinRequest apply(CheckinRequest request, boolean full) {
+        sentDeviceConfig = true;
+        deviceConfigHash = request.deviceConfiguration != null ? hash(request.deviceConfiguration.encode()) : null;
+        if (full || deviceConfigHash == null) return request;
+        long androidId = request.androidId != null ? request.androidId : 0;
+        if (androidId == 0 || preferences.getLong(PREF_ANDROID_ID, 0) != androidId) return request;
+        if (System.currentTimeMillis() - preferences.getLong(PREF_ACKNOWLEDGED, 0) > FULL_CHECKIN_INTERVAL) return request;
+        if (!deviceConfigHash.equals(preferences.getString(PREF_DEVICE_CONFIG_HASH, null))) return request;
+
+        Log.d(TAG, "Device configuration unchanged since last checkin, not sending it");
+        sentDeviceConfig = false;
+        return request.newBuilder().deviceConfiguration(null).build();
+    }
+
+    /**
+     * Remember the sections sent with the last {@link #apply}ed request as acknowledged by the server.
+     * If the server did not accept them, the next checkin sends all sections.
+     */
+    void acknowledge(CheckinResponse response) {
+        long androidId = response.androidId != null ? response.androidId : 0;
+        if (!Boolean.TRUE.equals(response.statsOk) || androidId == 0 || deviceConfigHash == null) {
+            preferences.edit().clear().apply();
+        } else if (sentDeviceConfig) {
+            preferences.edit()
+                    .putLong(PREF_ANDROID_ID, androidId)
+                    .putString(PREF_DEVICE_CONFIG_HASH, deviceConfigHash)
+                    .putLong(PREF_ACKNOWLEDGED, System.currentTimeMillis())
+                    .apply();
+        }
+    }
+
+    /**
+     * The last {@link #apply}ed request failed. If it was a delta, the next checkin sends all sections.
+     */
+    void reject() {
+        if (!sentDeviceConfig) preferences.edit().clear().apply();
+    }
+
+    private static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            Log.w(TAG, e);
+            return null;
+        }
+    }
+}
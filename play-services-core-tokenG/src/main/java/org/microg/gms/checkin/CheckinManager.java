@@ -21,22 +21,46 @@ import static org.microg.gms.checkin.CheckinPreferences.isSpoofingEnabled;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.os.Build;
-import android.content.ContentResolver;
 import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
 
 import org.microg.gms.auth.AuthConstants;
 import org.microg.gms.auth.AuthRequest;
+import org.microg.gms.auth.AuthResponse;
 import org.microg.gms.common.Constants;
 import org.microg.gms.common.DeviceConfiguration;
 import org.microg.gms.common.Utils;
 import org.microg.gms.gservices.GServices;
+import org.microg.gms.tokenmanager.TokenRequestBuilder;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CheckinManager {
+    private static final String TAG = "GmsCheckinManager";
     private static final long MIN_CHECKIN_INTERVAL = 3 * 60 * 60 * 1000; // 3 hours
+    private static final long LSID_DEADLINE_MS = 20000;
+    private static final long LSID_TTL_SECONDS = 24 * 60 * 60;
+    private static final String LSID_TOKEN_TYPE = "checkin:ac2dm:LSID";
+    private static final String LSID_EXPIRE_KEY = "EXP." + LSID_TOKEN_TYPE;
+    private static final int LSID_THREADS = 4;
+
+    // Own executor, LSID requests block through retries and must not hold up the shared HttpFormClient executor
+    private static final ThreadPoolExecutor lsidExecutor = createLsidExecutor();
 
     @SuppressWarnings("MissingPermission")
     public static synchronized LastCheckinInfo checkin(Context context, boolean force) throws IOException {
@@ -45,32 +69,121 @@ public class CheckinManager {
             return null;
         if (!CheckinPreferences.isEnabled(context))
             return null;
-        List<CheckinClient.Account> accounts = new ArrayList<CheckinClient.Account>();
-        AccountManager accountManager = AccountManager.get(context);
-        String accountType = AuthConstants.DEFAULT_ACCOUNT_TYPE;
-        for (Account account : accountManager.getAccountsByType(accountType)) {
-            String token = new AuthRequest()
-                    .email(account.name).token(accountManager.getPassword(account))
-                    .hasPermission(true).service("ac2dm")
-                    .app("com.google.android.gsf", Constants.GMS_PACKAGE_SIGNATURE_SHA1)
-                    .getResponse().LSid;
-            if (token != null) {
-                accounts.add(new CheckinClient.Account(account.name, token));
-            }
-        }
+        List<CheckinClient.Account> accounts = getAccounts(context);
         CheckinRequest request = CheckinClient.makeRequest(context,
                 new DeviceConfiguration(context), Utils.getDeviceIdentifier(context),
                 Utils.getPhoneInfo(context), info, Utils.getLocale(context), accounts, isSpoofingEnabled(context));
-        return handleResponse(context, CheckinClient.request(request));
+        CheckinDelta delta = new CheckinDelta(context);
+        CheckinResponse response;
+        try {
+            response = CheckinClient.request(delta.apply(request, force));
+        } catch (IOException e) {
+            delta.reject();
+            throw e;
+        }
+        delta.acknowledge(response);
+        return handleResponse(context, response);
+    }
+
+    /**
+     * Get the ac2dm LSID of all accounts. LSIDs are cached in the account manager, missing ones are
+     * requested concurrently with retries and accounts that don't answer before the deadline are left out.
+     */
+    @SuppressWarnings("MissingPermission")
+    private static List<CheckinClient.Account> getAccounts(Context context) throws IOException {
+        AccountManager accountManager = AccountManager.get(context);
+        Account[] accounts = accountManager.getAccountsByType(AuthConstants.DEFAULT_ACCOUNT_TYPE);
+        long now = System.currentTimeMillis() / 1000L;
+        Map<Account, String> lsids = new HashMap<>();
+        Map<Account, Future<AuthResponse>> pending = new HashMap<>();
+        for (Account account : accounts) {
+            String lsid = getCachedLsid(accountManager, account, now);
+            if (lsid != null) {
+                lsids.put(account, lsid);
+            } else {
+                AuthRequest request = new AuthRequest()
+                        .email(account.name).token(accountManager.getPassword(account))
+                        .hasPermission(true).service("ac2dm")
+                        .app("com.google.android.gsf", Constants.GMS_PACKAGE_SIGNATURE_SHA1);
+                pending.put(account, lsidExecutor.submit(request::getResponse));
+            }
+        }
+
+        long deadline = SystemClock.elapsedRealtime() + LSID_DEADLINE_MS;
+        try {
+            for (Map.Entry<Account, Future<AuthResponse>> entry : pending.entrySet()) {
+                Account account = entry.getKey();
+                try {
+                    long remaining = Math.max(0, deadline - SystemClock.elapsedRealtime());
+                    AuthResponse response = entry.getValue().get(remaining, TimeUnit.MILLISECONDS);
+                    if (response != null && response.LSid != null) {
+                        lsids.put(account, response.LSid);
+                        accountManager.setAuthToken(account, LSID_TOKEN_TYPE, response.LSid);
+                        long expiry = response.expiry > 0 ? response.expiry : now + LSID_TTL_SECONDS;
+                        accountManager.setUserData(account, LSID_EXPIRE_KEY, Long.toString(expiry));
+                    }
+                } catch (TimeoutException | CancellationException e) {
+                    Log.w(TAG, "No LSID for " + account.name + " before the deadline, checking in without it");
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Can't get LSID for " + account.name, e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for LSIDs");
+        } finally {
+            for (Future<AuthResponse> future : pending.values()) {
+                future.cancel(true);
+            }
+        }
+
+        List<CheckinClient.Account> result = new ArrayList<>();
+        List<String> dropped = new ArrayList<>();
+        for (Account account : accounts) {
+            String lsid = lsids.get(account);
+            if (lsid != null) {
+                result.add(new CheckinClient.Account(account.name, lsid));
+            } else {
+                dropped.add(account.name);
+            }
+        }
+        if (!dropped.isEmpty()) {
+            Log.e(TAG, "Checking in without " + dropped.size() + " of " + accounts.length + " accounts: " + dropped);
+        }
+        return result;
+    }
+
+    private static ThreadPoolExecutor createLsidExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(LSID_THREADS, LSID_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> new Thread(runnable, "CheckinLsid-" + threadNumber.incrementAndGet()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static String getCachedLsid(AccountManager accountManager, Account account, long now) {
+        // Auth tokens are cleared by the account manager when the account password changes
+        String expiry = accountManager.getUserData(account, LSID_EXPIRE_KEY);
+        if (expiry == null) return null;
+        try {
+            if (Long.parseLong(expiry) <= now) return null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return accountManager.peekAuthToken(account, LSID_TOKEN_TYPE);
     }
 
     private static LastCheckinInfo handleResponse(Context context, CheckinResponse response) {
         LastCheckinInfo info = new LastCheckinInfo(response);
         info.write(context);
+        TokenRequestBuilder.invalidateDeviceParams();
 
-        ContentResolver resolver = context.getContentResolver();
+        Map<String, String> settings = new LinkedHashMap<>();
         for (CheckinResponse.GservicesSetting setting : response.setting) {
-            GServices.setString(resolver, setting.name.utf8(), setting.value_.utf8());
+            settings.put(setting.name.utf8(), setting.value_.utf8());
+        }
+        if (!settings.isEmpty()) {
+            GServices.setStrings(context.getContentResolver(), settings);
         }
 
         return info;
@@ -37,6 +37,7 @@ import com.google.android.gms.tokeng.R;
 import com.google.android.gms.checkin.internal.ICheckinService;
 
 import org.microg.gms.auth.AuthConstants;
+import org.microg.gms.common.ConnectionWarmer;
 import org.microg.gms.common.ForegroundServiceInfo;
 import org.microg.gms.common.ForegroundServiceContext;
 
@@ -74,6 +75,12 @@ public class CheckinService extends IntentService {
         super(TAG);
     }
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        ConnectionWarmer.start(this);
+    }
+
     @SuppressWarnings("MissingPermission")
     @Override
     protected void onHandleIntent(Intent intent) {
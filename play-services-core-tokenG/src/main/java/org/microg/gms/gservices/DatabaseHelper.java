@@ -21,6 +21,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -87,7 +88,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         cursor = getReadableDatabase().query("main", new String[]{"name", "value"},
                 "name LIKE ?", new String[]{search}, null, null, null, null);
         if (cursor != null) {
-            if (cursor.moveToNext()) {
+            while (cursor.moveToNext()) {
                 if (!map.containsKey(cursor.getString(0)))
                     map.put(cursor.getString(0), cursor.getString(1));
             }
@@ -100,4 +101,39 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public void put(String table, ContentValues values) {
         getWritableDatabase().insertWithOnConflict(table, null, values, SQLiteDatabase.CONFLICT_REPLACE);
     }
+
+    /**
+     * Write all values in a single transaction.
+     *
+     * @return the number of rows written.
+     */
+    public int putAll(String table, ContentValues[] values) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO " + table + " (name, value) VALUES (?, ?)");
+            try {
+                for (ContentValues value : values) {
+                    bindStringOrNull(statement, 1, value.getAsString("name"));
+                    bindStringOrNull(statement, 2, value.getAsString("value"));
+                    statement.executeInsert();
+                    statement.clearBindings();
+                }
+            } finally {
+                statement.close();
+            }
+            db.setTransactionSuccessful();
+            return values.length;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
 }
@@ -21,6 +21,8 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.net.Uri;
 
+import java.util.Map;
+
 import com.google.android.gms.common.BuildConfig;
 
 public class GServices {
@@ -35,6 +37,21 @@ public class GServices {
         return resolver.update(MAIN_URI, values, null, null);
     }
 
+    /**
+     * Set all values at once, in a single transaction.
+     */
+    public static int setStrings(ContentResolver resolver, Map<String, String> settings) {
+        ContentValues[] values = new ContentValues[settings.size()];
+        int i = 0;
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            values[i] = new ContentValues();
+            values[i].put("name", setting.getKey());
+            values[i].put("value", setting.getValue());
+            i++;
+        }
+        return resolver.bulkInsert(MAIN_URI, values);
+    }
+
     public static String getString(ContentResolver resolver, String key) {
         return getString(resolver, key, null);
     }
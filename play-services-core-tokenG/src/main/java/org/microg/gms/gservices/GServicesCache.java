@@ -0,0 +1,125 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.gservices;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Thread-safe cache of GServices settings, bounded to {@link #MAX_ENTRIES} least recently used entries.
+ * Entries are also kept sorted by name, so a prefix lookup only visits the matching entries. Settings
+ * that don't exist are cached as {@link #ABSENT}.
+ * <p/>
+ * Values read from the database are only cached if no write happened in the meantime, see {@link #getVersion()}.
+ */
+class GServicesCache {
+    static final int MAX_ENTRIES = 4096;
+    /**
+     * Cached value of settings that don't exist. Compare by identity.
+     */
+    @SuppressWarnings("StringOperationCanBeSimplified")
+    static final String ABSENT = new String("");
+
+    private final TreeMap<String, String> index = new TreeMap<String, String>();
+    private final Set<String> cachedPrefixes = new HashSet<String>();
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            if (size() <= MAX_ENTRIES) return false;
+            index.remove(eldest.getKey());
+            removeCoveringPrefixes(eldest.getKey());
+            return true;
+        }
+    };
+    private long version;
+
+    /**
+     * Increases with every write. Pass it to {@link #put} and {@link #putPrefix} to only cache values
+     * that were read from the database after this call.
+     */
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the cached value, {@link #ABSENT} if the setting is known not to exist or null if it is not cached.
+     */
+    synchronized String get(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * @param value the value read from the database, null if the setting does not exist.
+     */
+    synchronized void put(String name, String value, long version) {
+        if (version != this.version) return;
+        putEntry(name, value == null ? ABSENT : value);
+    }
+
+    /**
+     * @return all existing settings starting with {@code prefix}, or null if they are not cached.
+     */
+    synchronized Map<String, String> getPrefix(String prefix) {
+        if (!isPrefixCached(prefix)) return null;
+        Map<String, String> result = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : index.subMap(prefix, prefix + Character.MAX_VALUE).entrySet()) {
+            if (entry.getValue() == ABSENT || !entry.getKey().startsWith(prefix)) continue;
+            result.put(entry.getKey(), entry.getValue());
+            entries.get(entry.getKey()); // Mark as recently used
+        }
+        return result;
+    }
+
+    /**
+     * @param values all existing settings starting with {@code prefix}, read from the database.
+     */
+    synchronized void putPrefix(String prefix, Map<String, String> values, long version) {
+        if (version != this.version || values.size() > MAX_ENTRIES) return;
+        // Mark first, evicting an entry of this prefix while adding the values unmarks it again
+        cachedPrefixes.add(prefix);
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            putEntry(entry.getKey(), entry.getValue());
+        }
+    }
+
+    synchronized void invalidate(String name) {
+        version++;
+        entries.remove(name);
+        index.remove(name);
+        removeCoveringPrefixes(name);
+    }
+
+    synchronized void clear() {
+        version++;
+        entries.clear();
+        index.clear();
+        cachedPrefixes.clear();
+    }
+
+    private void putEntry(String name, String value) {
+        index.put(name, value);
+        entries.put(name, value);
+    }
+
+    private boolean isPrefixCached(String prefix) {
+        if (cachedPrefixes.isEmpty()) return false;
+        for (int i = 0; i <= prefix.length(); i++) {
+            if (cachedPrefixes.contains(prefix.substring(0, i))) return true;
+        }
+        return false;
+    }
+
+    private void removeCoveringPrefixes(String name) {
+        if (cachedPrefixes.isEmpty()) return;
+        for (int i = 0; i <= name.length(); i++) {
+            cachedPrefixes.remove(name.substring(0, i));
+        }
+    }
+}
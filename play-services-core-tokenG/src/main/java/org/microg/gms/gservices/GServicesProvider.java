@@ -21,15 +21,13 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Process;
 import android.util.Log;
 
 import com.google.android.gms.common.BuildConfig;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
 
 import static android.os.Build.VERSION.SDK_INT;
 
@@ -49,8 +47,7 @@ public class GServicesProvider extends ContentProvider {
     private static final String TAG = "GmsServicesProvider";
 
     private DatabaseHelper databaseHelper;
-    private Map<String, String> cache = new HashMap<String, String>();
-    private Set<String> cachedPrefixes = new HashSet<String>();
+    private final GServicesCache cache = new GServicesCache();
 
     @Override
     public boolean onCreate() {
@@ -71,26 +68,28 @@ public class GServicesProvider extends ContentProvider {
         MatrixCursor cursor = new MatrixCursor(new String[]{"name", "value"});
         if (PREFIX_URI.equals(uri)) {
             for (String prefix : selectionArgs) {
-                if (!cachedPrefixes.contains(prefix)) {
-                    cache.putAll(databaseHelper.search(prefix + "%"));
-                    cachedPrefixes.add(prefix);
+                Map<String, String> values = cache.getPrefix(prefix);
+                if (values == null) {
+                    long version = cache.getVersion();
+                    values = databaseHelper.search(prefix + "%");
+                    cache.putPrefix(prefix, values, version);
                 }
 
-                for (String name : cache.keySet()) {
-                    if (name.startsWith(prefix)) {
-                        String value = cache.get(name);
-                        cursor.addRow(new String[]{name, value});
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    if (entry.getKey().startsWith(prefix)) {
+                        cursor.addRow(new String[]{entry.getKey(), entry.getValue()});
                     }
                 }
             }
         } else {
             for (String name : selectionArgs) {
-                String value;
-                if (cache.containsKey(name)) {
-                    value = cache.get(name);
-                } else {
+                String value = cache.get(name);
+                if (value == null) {
+                    long version = cache.getVersion();
                     value = databaseHelper.get(name);
-                    cache.put(name, value);
+                    cache.put(name, value, version);
+                } else if (value == GServicesCache.ABSENT) {
+                    value = null;
                 }
                 if (value != null) {
                     cursor.addRow(new String[]{name, value});
@@ -118,17 +117,47 @@ public class GServicesProvider extends ContentProvider {
 
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        checkWriteAccess();
         Log.d(TAG, "update caller=" + getCallingPackageName() + " table=" + uri.getLastPathSegment()
                 + " name=" + values.getAsString("name") + " value=" + values.getAsString("value"));
+        String table = getTable(uri);
+        if (table != null) {
+            databaseHelper.put(table, values);
+        }
+        cache.invalidate(values.getAsString("name"));
+        return 1;
+    }
+
+    /**
+     * Write all values in a single transaction, e.g. the settings of a checkin response.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        checkWriteAccess();
+        Log.d(TAG, "bulkInsert caller=" + getCallingPackageName() + " table=" + uri.getLastPathSegment()
+                + " count=" + values.length);
+        String table = getTable(uri);
+        if (table == null) throw new IllegalArgumentException("Unknown URI " + uri);
+        int count = databaseHelper.putAll(table, values);
+        cache.clear();
+        return count;
+    }
+
+    private static String getTable(Uri uri) {
         if (uri.equals(MAIN_URI)) {
-            databaseHelper.put("main", values);
+            return "main";
         } else if (uri.equals(OVERRIDE_URI)) {
-            databaseHelper.put("override", values);
+            return "overrides";
+        }
+        return null;
+    }
+
+    /**
+     * The provider is exported for reading, settings are only written by our own checkin.
+     */
+    private static void checkWriteAccess() {
+        if (Binder.getCallingUid() != Process.myUid()) {
+            throw new SecurityException("Access denied, GServices settings are read-only");
         }
-        String name = values.getAsString("name");
-        cache.remove(name);
-        Iterator<String> iterator = cachedPrefixes.iterator();
-        while (iterator.hasNext()) if (name.startsWith(iterator.next())) iterator.remove();
-        return 1;
     }
 }
@@ -5,20 +5,42 @@
 
 package org.microg.gms.tokenmanager;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.Signature;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
 import android.util.Log;
+import android.util.SparseBooleanArray;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
 import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.HashSet;
 import java.util.Set;
 
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
 /**
  * Manages API security for external app access.
  * Supports EITHER signature verification OR password authentication.
+ * Signature decisions are cached per calling UID until the policy changes
+ * or the calling package is replaced or removed.
+ * In password mode, callers may exchange the password once for a short-lived
+ * session ticket, so the slow password hash is not computed on every request.
  */
 public class ApiSecurityManager {
     private static final String TAG = "ApiSecurityManager";
@@ -26,18 +48,79 @@ public class ApiSecurityManager {
     private static final String KEY_AUTH_MODE = "auth_mode";
     private static final String KEY_PASSWORD_HASH = "password_hash";
     private static final String KEY_ALLOWED_SIGNATURES = "allowed_signatures";
+    private static final String PBKDF2_PREFIX = "pbkdf2:";
+    private static final String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA1";
+    private static final int PBKDF2_ITERATIONS = 20000;
+    private static final int PBKDF2_KEY_LENGTH = 256;
+    private static final int SALT_LENGTH = 16;
+    private static final String SESSION_MAC_ALGORITHM = "HmacSHA256";
+    private static final long SESSION_TICKET_LIFETIME = 15 * 60 * 1000; // 15 minutes
+    private static final String ANDROID_KEY_STORE = "AndroidKeyStore";
+    private static final String SESSION_KEY_ALIAS = "token_manager_session";
 
     public enum AuthMode {
         SIGNATURE, // Validate calling app's signature
         PASSWORD // Validate shared secret password
     }
 
+    public enum SessionState {
+        VALID,
+        INVALID, // Malformed, forged, for another UID or signed before the policy changed
+        EXPIRED // Create a new session
+    }
+
+    // Shared by all instances, so policy changes made through one instance apply everywhere
+    private static final SparseBooleanArray uidDecisions = new SparseBooleanArray();
+    private static int decisionsGeneration;
+    private static boolean packageReceiverRegistered;
+    // Session tickets are signed with a key kept in the Android keystore, so they survive process restarts.
+    // The key is replaced whenever the policy changes.
+    private static volatile SecretKey sessionKey;
+
     private final Context context;
     private final SharedPreferences prefs;
 
     public ApiSecurityManager(Context context) {
         this.context = context.getApplicationContext();
         this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        registerPackageReceiver(this.context);
+    }
+
+    private static synchronized void registerPackageReceiver(Context context) {
+        if (packageReceiverRegistered) {
+            return;
+        }
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
+                if (uid != -1) {
+                    invalidateDecision(uid);
+                } else {
+                    invalidateDecisions();
+                }
+            }
+        }, filter);
+        packageReceiverRegistered = true;
+    }
+
+    private static void invalidateDecision(int uid) {
+        synchronized (uidDecisions) {
+            uidDecisions.delete(uid);
+            decisionsGeneration++;
+        }
+    }
+
+    private static void invalidateDecisions() {
+        synchronized (uidDecisions) {
+            uidDecisions.clear();
+            decisionsGeneration++;
+        }
     }
 
     /**
@@ -53,6 +136,8 @@ public class ApiSecurityManager {
      */
     public void setAuthMode(AuthMode mode) {
         prefs.edit().putString(KEY_AUTH_MODE, mode.name()).apply();
+        invalidateDecisions();
+        rotateSessionKey();
         Log.i(TAG, "Auth mode set to: " + mode);
     }
 
@@ -62,6 +147,7 @@ public class ApiSecurityManager {
     public void setPassword(String password) {
         String hash = hashPassword(password);
         prefs.edit().putString(KEY_PASSWORD_HASH, hash).apply();
+        rotateSessionKey();
         Log.i(TAG, "Password updated");
     }
 
@@ -81,12 +167,77 @@ public class ApiSecurityManager {
             Log.w(TAG, "No password set");
             return false;
         }
-        String inputHash = hashPassword(password);
-        boolean valid = storedHash.equals(inputHash);
+        if (password == null) {
+            return false;
+        }
+        boolean valid;
+        if (storedHash.startsWith(PBKDF2_PREFIX)) {
+            String[] parts = storedHash.substring(PBKDF2_PREFIX.length()).split(":");
+            byte[] salt = Base64.decode(parts[1], Base64.NO_WRAP);
+            byte[] expected = Base64.decode(parts[2], Base64.NO_WRAP);
+            byte[] actual = pbkdf2(password, salt, Integer.parseInt(parts[0]));
+            valid = MessageDigest.isEqual(expected, actual);
+        } else {
+            valid = MessageDigest.isEqual(storedHash.getBytes(StandardCharsets.US_ASCII),
+                    legacyHashPassword(password).getBytes(StandardCharsets.US_ASCII));
+            if (valid) {
+                // Upgrade the plain SHA-256 hash from older versions
+                prefs.edit().putString(KEY_PASSWORD_HASH, hashPassword(password)).apply();
+            }
+        }
         Log.i(TAG, "Password verification: " + (valid ? "SUCCESS" : "FAILED"));
         return valid;
     }
 
+    /**
+     * Verify the password and issue a session ticket bound to the calling UID.
+     *
+     * @return The ticket, or null if not in password mode or the password is wrong.
+     */
+    public String createSessionTicket(int callingUid, String password) {
+        if (getAuthMode() != AuthMode.PASSWORD || !verifyPassword(password)) {
+            return null;
+        }
+        String payload = callingUid + ":" + (System.currentTimeMillis() + SESSION_TICKET_LIFETIME);
+        return payload + ":" + Base64.encodeToString(signSessionPayload(payload), Base64.NO_WRAP | Base64.URL_SAFE);
+    }
+
+    /**
+     * Verify a session ticket issued by {@link #createSessionTicket}.
+     */
+    public boolean verifySessionTicket(int callingUid, String ticket) {
+        return checkSessionTicket(callingUid, ticket) == SessionState.VALID;
+    }
+
+    /**
+     * Check a session ticket issued by {@link #createSessionTicket}, telling expired tickets apart from invalid ones.
+     */
+    public SessionState checkSessionTicket(int callingUid, String ticket) {
+        int separator = ticket.lastIndexOf(':');
+        if (separator < 0) {
+            return SessionState.INVALID;
+        }
+        String payload = ticket.substring(0, separator);
+        byte[] mac;
+        try {
+            mac = Base64.decode(ticket.substring(separator + 1), Base64.NO_WRAP | Base64.URL_SAFE);
+        } catch (IllegalArgumentException e) {
+            return SessionState.INVALID;
+        }
+        if (!MessageDigest.isEqual(mac, signSessionPayload(payload))) {
+            return SessionState.INVALID;
+        }
+        String[] parts = payload.split(":");
+        try {
+            if (parts.length != 2 || Integer.parseInt(parts[0]) != callingUid) {
+                return SessionState.INVALID;
+            }
+            return Long.parseLong(parts[1]) > System.currentTimeMillis() ? SessionState.VALID : SessionState.EXPIRED;
+        } catch (NumberFormatException e) {
+            return SessionState.INVALID;
+        }
+    }
+
     /**
      * Add an allowed signature for signature-based auth.
      */
@@ -94,6 +245,7 @@ public class ApiSecurityManager {
         Set<String> signatures = getAllowedSignatures();
         signatures.add(signatureHash.toLowerCase());
         prefs.edit().putStringSet(KEY_ALLOWED_SIGNATURES, signatures).apply();
+        invalidateDecisions();
         Log.i(TAG, "Added allowed signature: " + signatureHash);
     }
 
@@ -104,6 +256,7 @@ public class ApiSecurityManager {
         Set<String> signatures = getAllowedSignatures();
         signatures.remove(signatureHash.toLowerCase());
         prefs.edit().putStringSet(KEY_ALLOWED_SIGNATURES, signatures).apply();
+        invalidateDecisions();
     }
 
     /**
@@ -145,6 +298,62 @@ public class ApiSecurityManager {
         }
     }
 
+    /**
+     * Verify the signatures of all packages sharing the calling UID.
+     */
+    public boolean verifyCallerSignature(int callingUid) {
+        String[] packages = context.getPackageManager().getPackagesForUid(callingUid);
+        if (packages == null) {
+            Log.w(TAG, "No packages found for uid: " + callingUid);
+            return false;
+        }
+        for (String callingPackage : packages) {
+            if (verifyCallerSignature(callingPackage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if a request from the given UID is authorized based on current auth mode.
+     * Signature decisions are answered from the per-UID cache when possible.
+     */
+    public boolean isAuthorized(int callingUid, String password, String sessionTicket) {
+        long start = System.nanoTime();
+        try {
+            return checkAuthorized(callingUid, password, sessionTicket);
+        } finally {
+            TokenMetrics.AUTHORIZE_LATENCY.recordSince(start);
+        }
+    }
+
+    private boolean checkAuthorized(int callingUid, String password, String sessionTicket) {
+        int generation;
+        synchronized (uidDecisions) {
+            int index = uidDecisions.indexOfKey(callingUid);
+            if (index >= 0) {
+                return uidDecisions.valueAt(index);
+            }
+            generation = decisionsGeneration;
+        }
+
+        if (getAuthMode() == AuthMode.SIGNATURE) {
+            boolean decision = verifyCallerSignature(callingUid);
+            synchronized (uidDecisions) {
+                // Don't store a decision made against a policy that changed meanwhile
+                if (generation == decisionsGeneration) {
+                    uidDecisions.put(callingUid, decision);
+                }
+            }
+            return decision;
+        } else if (sessionTicket != null) {
+            return verifySessionTicket(callingUid, sessionTicket);
+        } else {
+            return verifyPassword(password);
+        }
+    }
+
     /**
      * Check if request is authorized based on current auth mode.
      */
@@ -177,9 +386,75 @@ public class ApiSecurityManager {
     }
 
     /**
-     * Hash a password using SHA-256.
+     * Hash a password using PBKDF2 with a random salt.
      */
     private String hashPassword(String password) {
+        byte[] salt = new byte[SALT_LENGTH];
+        new SecureRandom().nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, PBKDF2_ITERATIONS);
+        return PBKDF2_PREFIX + PBKDF2_ITERATIONS
+                + ":" + Base64.encodeToString(salt, Base64.NO_WRAP)
+                + ":" + Base64.encodeToString(hash, Base64.NO_WRAP);
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        try {
+            PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, PBKDF2_KEY_LENGTH);
+            return SecretKeyFactory.getInstance(PBKDF2_ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (Exception e) {
+            throw new IllegalStateException("PBKDF2 not available", e);
+        }
+    }
+
+    private static byte[] signSessionPayload(String payload) {
+        try {
+            Mac mac = Mac.getInstance(SESSION_MAC_ALGORITHM);
+            mac.init(getSessionKey());
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw new IllegalStateException("HMAC not available", e);
+        }
+    }
+
+    private static SecretKey getSessionKey() throws GeneralSecurityException, IOException {
+        SecretKey key = sessionKey;
+        if (key != null) {
+            return key;
+        }
+        synchronized (ApiSecurityManager.class) {
+            if (sessionKey == null) {
+                KeyStore keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
+                keyStore.load(null);
+                if (keyStore.containsAlias(SESSION_KEY_ALIAS)) {
+                    sessionKey = (SecretKey) keyStore.getKey(SESSION_KEY_ALIAS, null);
+                } else {
+                    KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_HMAC_SHA256, ANDROID_KEY_STORE);
+                    generator.init(new KeyGenParameterSpec.Builder(SESSION_KEY_ALIAS, KeyProperties.PURPOSE_SIGN).build());
+                    sessionKey = generator.generateKey();
+                }
+            }
+            return sessionKey;
+        }
+    }
+
+    /**
+     * Invalidate all session tickets, a new key is created on next use.
+     */
+    private static synchronized void rotateSessionKey() {
+        sessionKey = null;
+        try {
+            KeyStore keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
+            keyStore.load(null);
+            keyStore.deleteEntry(SESSION_KEY_ALIAS);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to delete session key", e);
+        }
+    }
+
+    /**
+     * Hash a password using SHA-256, as done by older versions.
+     */
+    private String legacyHashPassword(String password) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
             byte[] digest = md.digest(password.getBytes("UTF-8"));
@@ -0,0 +1,52 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.tokenmanager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Collapses concurrent calls for the same key into a single execution.
+ * The first caller runs the work, later callers wait for and share its result.
+ * Results and failures are never retained once the call has completed.
+ */
+public class RequestCoalescer<V> {
+    private final Map<String, FutureTask<V>> inFlight = new HashMap<>();
+
+    public V execute(String key, Callable<V> callable) throws Exception {
+        FutureTask<V> task;
+        boolean owner = false;
+        synchronized (inFlight) {
+            task = inFlight.get(key);
+            if (task == null) {
+                task = new FutureTask<>(callable);
+                inFlight.put(key, task);
+                owner = true;
+            }
+        }
+        if (owner) {
+            try {
+                task.run();
+            } finally {
+                synchronized (inFlight) {
+                    inFlight.remove(key);
+                }
+            }
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.tokenmanager;
+
+import android.accounts.Account;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Bounded in-memory cache of minted tokens.
+ * Entries are evicted least-recently-used first and are considered stale
+ * shortly before the expiry reported by the auth server. Reads are counted
+ * so that only tokens in active use get refreshed in the background.
+ * If a {@link TokenStore} is given, entries are loaded from it in the background
+ * right away and written back to it after every change. Accesses before the load
+ * completed wait for it, outside of the cache lock.
+ */
+public class TokenCache {
+    private static final String TAG = "TokenCache";
+    static final long EXPIRY_MARGIN_SECONDS = 300L;
+    private static final long DEFAULT_LIFETIME_SECONDS = 60 * 60;
+
+    public interface LoadListener {
+        /**
+         * Called on a background thread with the keys and expiries of the entries loaded from the store.
+         */
+        void onLoaded(Map<String, Long> expiries);
+    }
+
+    private final Map<String, Entry> entries;
+    @Nullable
+    private final TokenStore store;
+    @Nullable
+    private final LoadListener loadListener;
+    @Nullable
+    private final Future<?> load;
+    private volatile boolean loaded;
+
+    public TokenCache(int maxSize, @Nullable TokenStore store) {
+        this(maxSize, store, null);
+    }
+
+    public TokenCache(final int maxSize, @Nullable TokenStore store, @Nullable LoadListener loadListener) {
+        this.store = store;
+        this.loadListener = loadListener;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+        this.loaded = store == null;
+        this.load = store != null ? store.readAsync(this::onStoreRead) : null;
+    }
+
+    /**
+     * Build the cache key for a token request.
+     */
+    public static String buildKey(Account account, String packageName, String signature, String scope) {
+        return account.name.toLowerCase(Locale.ROOT) + ":" + packageName + ":" + signature + ":" + scope;
+    }
+
+    /**
+     * Split a key built by {@link #buildKey} into account name, package name, signature and scope.
+     */
+    public static String[] splitKey(String key) {
+        return key.split(":", 4);
+    }
+
+    /**
+     * Get a cached token, or null if none is present or it is about to expire.
+     */
+    public String get(String key) {
+        awaitLoaded();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (now() >= entry.expiry - EXPIRY_MARGIN_SECONDS) {
+                entries.remove(key);
+                persist();
+                return null;
+            }
+            entry.hits++;
+            return entry.token;
+        }
+    }
+
+    /**
+     * Check if the entry stored with the given expiry is still cached and was read
+     * since it was stored, which makes it worth refreshing before it expires.
+     */
+    public boolean shouldRefresh(String key, long expiry) {
+        awaitLoaded();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            return entry != null && entry.expiry == expiry && entry.hits > 0;
+        }
+    }
+
+    /**
+     * Store a token.
+     *
+     * @param expiry Expiry in seconds since epoch as returned by the auth server, or a
+     *               non-positive value if unknown.
+     * @return The expiry the token was stored with.
+     */
+    public long put(String key, String token, long expiry) {
+        awaitLoaded();
+        synchronized (this) {
+            if (expiry <= 0) {
+                expiry = now() + DEFAULT_LIFETIME_SECONDS;
+            }
+            entries.put(key, new Entry(token, expiry));
+            persist();
+            return expiry;
+        }
+    }
+
+    public void remove(String key) {
+        awaitLoaded();
+        synchronized (this) {
+            if (entries.remove(key) != null) {
+                persist();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        loaded = true;
+        entries.clear();
+        persist();
+    }
+
+    /**
+     * Wait for the entries loaded from the store, usually only right after construction.
+     */
+    private void awaitLoaded() {
+        if (loaded) {
+            return;
+        }
+        try {
+            load.get();
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Failed to load stored tokens", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Continue without stored tokens if loading failed
+        loaded = true;
+    }
+
+    private void onStoreRead(Map<String, Entry> stored) {
+        Map<String, Long> expiries = new HashMap<>();
+        synchronized (this) {
+            if (loaded) {
+                // Cleared, or a caller gave up waiting
+                return;
+            }
+            long now = now();
+            for (Map.Entry<String, Entry> entry : stored.entrySet()) {
+                if (now < entry.getValue().expiry - EXPIRY_MARGIN_SECONDS) {
+                    entries.put(entry.getKey(), entry.getValue());
+                    expiries.put(entry.getKey(), entry.getValue().expiry);
+                }
+            }
+            loaded = true;
+        }
+        if (loadListener != null && !expiries.isEmpty()) {
+            loadListener.onLoaded(expiries);
+        }
+    }
+
+    private void persist() {
+        if (store != null) {
+            store.scheduleWrite(this::snapshot);
+        }
+    }
+
+    private synchronized Map<String, Entry> snapshot() {
+        return new HashMap<>(entries);
+    }
+
+    static long now() {
+        return System.currentTimeMillis() / 1000L;
+    }
+
+    static class Entry {
+        final String token;
+        final long expiry;
+        int hits;
+
+        Entry(String token, long expiry) {
+            this.token = token;
+            this.expiry = expiry;
+        }
+    }
+}
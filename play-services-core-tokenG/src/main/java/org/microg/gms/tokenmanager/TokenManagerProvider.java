@@ -6,7 +6,6 @@
 package org.microg.gms.tokenmanager;
 
 import android.accounts.Account;
-import android.accounts.AccountManager;
 import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
@@ -20,7 +19,9 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import org.microg.gms.auth.AuthConstants;
+import org.microg.gms.auth.AccountIndex;
+import org.microg.gms.auth.RateLimitExceededException;
+import org.microg.gms.common.ConnectionWarmer;
 
 /**
  * ContentProvider for external app access to token operations.
@@ -33,6 +34,13 @@ import org.microg.gms.auth.AuthConstants;
  * Methods can also be called via:
  * provider.call("getPhotosToken", email, extras)
  * provider.call("getPhotosAuthString", email, extras)
+ * provider.call("getTokensBatch", email, extras) with "packageNames" and "scopes" string arrays
+ * of at most {@link TokenManagerService#MAX_BATCH_SIZE} entries
+ *
+ * In password mode, provider.call("createSession", null, extras) exchanges the password
+ * for a short-lived "sessionTicket" that can be passed in extras instead of the password.
+ *
+ * provider.call("getMetrics", null, extras) returns latency histograms and counters.
  */
 public class TokenManagerProvider extends ContentProvider {
     private static final String TAG = "TokenManagerProvider";
@@ -45,6 +53,10 @@ public class TokenManagerProvider extends ContentProvider {
     private static final int AUTH_STRING_PHOTOS = 2;
     private static final int TOKEN_CUSTOM = 3;
 
+    // Values of the errorCode result key
+    public static final String ERROR_CODE_RATE_LIMITED = "RATE_LIMITED";
+    public static final String ERROR_CODE_SESSION_EXPIRED = "SESSION_EXPIRED";
+
     private UriMatcher uriMatcher;
     private ApiSecurityManager securityManager;
     private TokenManagerService tokenService;
@@ -60,6 +72,7 @@ public class TokenManagerProvider extends ContentProvider {
 
         securityManager = new ApiSecurityManager(getContext());
         tokenService = TokenManagerService.getInstance(getContext());
+        ConnectionWarmer.start(getContext());
 
         Log.i(TAG, "TokenManagerProvider initialized with authority: " + authority);
         return true;
@@ -71,16 +84,41 @@ public class TokenManagerProvider extends ContentProvider {
         Bundle result = new Bundle();
 
         // Security check
-        String callingPackage = getCallerPackageName();
+        int callingUid = Binder.getCallingUid();
         String password = extras != null ? extras.getString("password") : null;
+        String sessionTicket = extras != null ? extras.getString("sessionTicket") : null;
+
+        if ("createSession".equals(method)) {
+            String ticket = securityManager.createSessionTicket(callingUid, password);
+            result.putBoolean("success", ticket != null);
+            if (ticket != null) {
+                result.putString("sessionTicket", ticket);
+            } else {
+                result.putString("error", "Unauthorized. Sessions require password mode and a valid password.");
+            }
+            return result;
+        }
 
-        if (!securityManager.isAuthorized(callingPackage, password)) {
-            Log.w(TAG, "Unauthorized access attempt from: " + callingPackage);
+        if (!securityManager.isAuthorized(callingUid, password, sessionTicket)) {
             result.putBoolean("success", false);
+            if (sessionTicket != null && securityManager.checkSessionTicket(callingUid, sessionTicket)
+                    == ApiSecurityManager.SessionState.EXPIRED) {
+                Log.d(TAG, "Expired session ticket from: " + getCallerPackageName());
+                result.putString("error", "Session expired. Create a new session.");
+                result.putString("errorCode", ERROR_CODE_SESSION_EXPIRED);
+                return result;
+            }
+            Log.w(TAG, "Unauthorized access attempt from: " + getCallerPackageName());
             result.putString("error", "Unauthorized. Check signature or password.");
             return result;
         }
 
+        if ("getMetrics".equals(method)) {
+            result.putBoolean("success", true);
+            result.putBundle("metrics", TokenMetrics.snapshot());
+            return result;
+        }
+
         try {
             Account account = getAccountFromArg(arg);
             if (account == null) {
@@ -94,6 +132,7 @@ public class TokenManagerProvider extends ContentProvider {
                     String token = tokenService.fetchPhotosToken(account);
                     result.putBoolean("success", !token.startsWith("ERROR"));
                     result.putString("token", token);
+                    putErrorCode(result, token);
                     break;
 
                 case "getPhotosAuthString":
@@ -114,6 +153,39 @@ public class TokenManagerProvider extends ContentProvider {
                     String customToken = tokenService.fetchToken(account, packageName, scope);
                     result.putBoolean("success", !customToken.startsWith("ERROR"));
                     result.putString("token", customToken);
+                    putErrorCode(result, customToken);
+                    break;
+
+                case "getTokensBatch":
+                    String[] packageNames = extras != null ? extras.getStringArray("packageNames") : null;
+                    String[] scopes = extras != null ? extras.getStringArray("scopes") : null;
+                    if (packageNames == null || scopes == null || packageNames.length != scopes.length) {
+                        result.putBoolean("success", false);
+                        result.putString("error", "packageNames and scopes must be arrays of equal length");
+                        break;
+                    }
+                    if (packageNames.length > TokenManagerService.MAX_BATCH_SIZE) {
+                        result.putBoolean("success", false);
+                        result.putString("error", "At most " + TokenManagerService.MAX_BATCH_SIZE
+                                + " tokens can be requested in one batch");
+                        break;
+                    }
+                    String[] tokens = tokenService.fetchTokens(account, packageNames, scopes);
+                    Bundle[] items = new Bundle[tokens.length];
+                    boolean allSucceeded = true;
+                    for (int i = 0; i < tokens.length; i++) {
+                        Bundle item = new Bundle();
+                        item.putString("packageName", packageNames[i]);
+                        item.putString("scope", scopes[i]);
+                        boolean itemSuccess = tokens[i] != null && !tokens[i].startsWith("ERROR");
+                        item.putBoolean("success", itemSuccess);
+                        item.putString(itemSuccess ? "token" : "error", tokens[i]);
+                        putErrorCode(item, tokens[i]);
+                        items[i] = item;
+                        allSucceeded &= itemSuccess;
+                    }
+                    result.putBoolean("success", allSucceeded);
+                    result.putParcelableArray("results", items);
                     break;
 
                 default:
@@ -130,20 +202,21 @@ public class TokenManagerProvider extends ContentProvider {
         return result;
     }
 
+    /**
+     * Add a machine-readable error code for errors callers are expected to handle.
+     */
+    private static void putErrorCode(Bundle result, String token) {
+        if (token != null && token.startsWith(RateLimitExceededException.ERROR_PREFIX)) {
+            result.putString("errorCode", ERROR_CODE_RATE_LIMITED);
+        }
+    }
+
     private Account getAccountFromArg(String email) {
         if (email == null || email.isEmpty()) {
             return null;
         }
 
-        AccountManager am = AccountManager.get(getContext());
-        Account[] accounts = am.getAccountsByType(AuthConstants.DEFAULT_ACCOUNT_TYPE);
-
-        for (Account account : accounts) {
-            if (account.name.equalsIgnoreCase(email)) {
-                return account;
-            }
-        }
-        return null;
+        return AccountIndex.get(getContext()).find(email);
     }
 
     private String getCallerPackageName() {
@@ -10,10 +10,20 @@ import android.accounts.AccountManager;
 import android.content.Context;
 import android.util.Log;
 
+import org.microg.gms.auth.AccountIndex;
+import org.microg.gms.auth.AccountRateLimiter;
 import org.microg.gms.auth.AuthRequest;
 import org.microg.gms.auth.AuthResponse;
+import org.microg.gms.auth.RateLimitExceededException;
 
-import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Core service for token operations.
@@ -22,12 +32,25 @@ import java.io.UnsupportedEncodingException;
  */
 public class TokenManagerService {
     private static final String TAG = "TokenManagerService";
+    public static final int MAX_BATCH_SIZE = 32;
+    private static final int TOKEN_CACHE_SIZE = 64;
+    private static final int BATCH_PARALLELISM = 4;
+    private static final long RATE_LIMIT_WAIT_MS = 10000;
+    private static final String NO_WAIT_KEY_PREFIX = "no-wait:";
     private static volatile TokenManagerService instance;
 
     private final Context context;
+    private final TokenCache tokenCache;
+    private final RequestCoalescer<AuthResponse> inFlightRequests = new RequestCoalescer<>();
+    private final TokenRefreshScheduler refreshScheduler = new TokenRefreshScheduler();
+    private final ThreadPoolExecutor batchExecutor;
 
     private TokenManagerService(Context context) {
         this.context = context.getApplicationContext();
+        this.tokenCache = new TokenCache(TOKEN_CACHE_SIZE, new TokenStore(this.context), this::scheduleRefreshes);
+        this.batchExecutor = new ThreadPoolExecutor(BATCH_PARALLELISM, BATCH_PARALLELISM,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        this.batchExecutor.allowCoreThreadTimeOut(true);
     }
 
     public static TokenManagerService getInstance(Context context) {
@@ -68,14 +91,71 @@ public class TokenManagerService {
      * Fetch a token with custom signature.
      */
     public String fetchToken(Account account, String packageName, String signature, String scope) {
+        long start = System.nanoTime();
+        try {
+            return doFetchToken(account, packageName, signature, scope);
+        } finally {
+            TokenMetrics.FETCH_TOKEN_LATENCY.recordSince(start);
+        }
+    }
+
+    private String doFetchToken(Account account, String packageName, String signature, String scope) {
         Log.i(TAG, "Fetching token for: " + packageName + " | Scope: " + scope);
 
+        String cacheKey = TokenCache.buildKey(account, packageName, signature, scope);
+        String cachedToken = tokenCache.get(cacheKey);
+        if (cachedToken != null) {
+            Log.d(TAG, "Using cached token");
+            TokenMetrics.recordCacheHit();
+            return cachedToken;
+        }
+        TokenMetrics.recordCacheMiss();
+
         try {
             String masterToken = getMasterToken(account);
             if (masterToken == null) {
+                TokenMetrics.recordError("NoMasterToken");
                 return "ERROR: No master token found. Please re-login.";
             }
 
+            AuthResponse response = mintToken(cacheKey, account, masterToken, packageName, signature, scope,
+                    RATE_LIMIT_WAIT_MS);
+
+            if (response != null && response.auth != null && !response.auth.isEmpty()) {
+                String tokenType = response.auth.startsWith("aas_et/") ? "AES"
+                        : response.auth.startsWith("ya29.") ? "OAuth2" : "Unknown";
+                Log.i(TAG, "Token fetched successfully! Type: " + tokenType);
+                TokenMetrics.recordToken(tokenType);
+                return response.auth;
+            } else {
+                Log.w(TAG, "Response received but auth token is null/empty");
+                TokenMetrics.recordError("EmptyToken");
+                return "ERROR: Google returned empty token";
+            }
+
+        } catch (RateLimitExceededException e) {
+            Log.w(TAG, "Token fetch rate limited: " + e.getMessage());
+            TokenMetrics.recordError("RateLimited");
+            return e.toErrorString();
+        } catch (Exception e) {
+            Log.e(TAG, "Token fetch failed", e);
+            TokenMetrics.recordError(e.getClass().getSimpleName());
+            return "ERROR: " + e.getClass().getSimpleName() + " - " + e.getMessage();
+        }
+    }
+
+    /**
+     * Request a fresh token from the auth server, coalescing with identical requests in flight.
+     * Successful tokens are cached and scheduled for background refresh. Waits at most
+     * {@code rateLimitWaitMs} for the account's rate limit.
+     */
+    private AuthResponse mintToken(String cacheKey, Account account, String masterToken, String packageName,
+            String signature, String scope, long rateLimitWaitMs) throws Exception {
+        // Callers that may wait for the rate limit don't join requests that may not, they would share their rejection
+        String requestKey = rateLimitWaitMs > 0 ? cacheKey : NO_WAIT_KEY_PREFIX + cacheKey;
+        return inFlightRequests.execute(requestKey, () -> {
+            AccountRateLimiter rateLimiter = AccountRateLimiter.get(context);
+            rateLimiter.acquire(account.name, rateLimitWaitMs);
             AuthRequest request = new AuthRequest()
                     .fromContext(context)
                     .email(account.name)
@@ -84,25 +164,96 @@ public class TokenManagerService {
                     .app(packageName, signature)
                     .caller(packageName, signature)
                     .systemPartition(true)
-                    .hasPermission(true);
+                    .hasPermission(true)
+                    .hedged()
+                    .budget(rateLimiter.budget(account.name));
 
             Log.i(TAG, "Sending request to Google auth server...");
             AuthResponse response = request.getResponse();
-
             if (response != null && response.auth != null && !response.auth.isEmpty()) {
-                String tokenType = response.auth.startsWith("aas_et/") ? "AES"
-                        : response.auth.startsWith("ya29.") ? "OAuth2" : "Unknown";
-                Log.i(TAG, "Token fetched successfully! Type: " + tokenType);
-                return response.auth;
-            } else {
-                Log.w(TAG, "Response received but auth token is null/empty");
-                return "ERROR: Google returned empty token";
+                // Populate the cache before the in-flight entry is released
+                long expiry = tokenCache.put(cacheKey, response.auth, response.expiry);
+                refreshScheduler.schedule(expiry,
+                        () -> refreshToken(cacheKey, expiry, account, packageName, signature, scope));
             }
+            return response;
+        });
+    }
 
+    /**
+     * Schedule refreshes for tokens loaded from disk, their refreshes were lost with the previous process.
+     */
+    private void scheduleRefreshes(Map<String, Long> expiries) {
+        for (Map.Entry<String, Long> entry : expiries.entrySet()) {
+            String cacheKey = entry.getKey();
+            long expiry = entry.getValue();
+            String[] parts = TokenCache.splitKey(cacheKey);
+            Account account = parts.length == 4 ? AccountIndex.get(context).find(parts[0]) : null;
+            if (account == null) {
+                continue;
+            }
+            refreshScheduler.schedule(expiry,
+                    () -> refreshToken(cacheKey, expiry, account, parts[1], parts[2], parts[3]));
+        }
+    }
+
+    /**
+     * Re-mint a cached token ahead of its expiry if it is still in use.
+     */
+    private void refreshToken(String cacheKey, long expiry, Account account, String packageName,
+            String signature, String scope) {
+        if (!tokenCache.shouldRefresh(cacheKey, expiry)) {
+            Log.d(TAG, "Skipping refresh of unused token for: " + packageName);
+            return;
+        }
+        String masterToken = getMasterToken(account);
+        if (masterToken == null) {
+            return;
+        }
+        Log.i(TAG, "Refreshing token for: " + packageName + " | Scope: " + scope);
+        try {
+            // Background refreshes never wait for the rate limit
+            mintToken(cacheKey, account, masterToken, packageName, signature, scope, 0);
         } catch (Exception e) {
-            Log.e(TAG, "Token fetch failed", e);
-            return "ERROR: " + e.getClass().getSimpleName() + " - " + e.getMessage();
+            Log.w(TAG, "Token refresh failed", e);
+        }
+    }
+
+    /**
+     * Fetch tokens for several apps in parallel.
+     * The result at each index corresponds to the package and scope at the same index,
+     * failed fetches are reported as error strings just like {@link #fetchToken}.
+     * At most {@link #MAX_BATCH_SIZE} tokens can be requested at once.
+     */
+    public String[] fetchTokens(Account account, String[] packageNames, String[] scopes) {
+        if (packageNames.length != scopes.length) {
+            throw new IllegalArgumentException("packageNames and scopes must have the same length");
+        }
+        if (packageNames.length > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch of " + packageNames.length
+                    + " tokens exceeds the maximum of " + MAX_BATCH_SIZE);
+        }
+
+        List<Future<String>> futures = new ArrayList<>(packageNames.length);
+        for (int i = 0; i < packageNames.length; i++) {
+            final String packageName = packageNames[i];
+            final String scope = scopes[i];
+            futures.add(batchExecutor.submit(() -> fetchToken(account, packageName, scope)));
+        }
+
+        String[] tokens = new String[futures.size()];
+        for (int i = 0; i < tokens.length; i++) {
+            try {
+                tokens[i] = futures.get(i).get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                tokens[i] = "ERROR: " + cause.getClass().getSimpleName() + " - " + cause.getMessage();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                tokens[i] = "ERROR: InterruptedException - " + e.getMessage();
+            }
         }
+        return tokens;
     }
 
     /**
@@ -115,7 +266,7 @@ public class TokenManagerService {
     /**
      * Build auth request string for Google Photos.
      */
-    public String buildPhotosAuthRequestString(Account account) throws UnsupportedEncodingException {
+    public String buildPhotosAuthRequestString(Account account) {
         String masterToken = getMasterToken(account);
         if (masterToken == null) {
             throw new IllegalStateException("No master token found");
@@ -132,8 +283,7 @@ public class TokenManagerService {
     /**
      * Build auth request string for any app.
      */
-    public String buildAuthRequestString(Account account, String packageName, String scope)
-            throws UnsupportedEncodingException {
+    public String buildAuthRequestString(Account account, String packageName, String scope) {
         String masterToken = getMasterToken(account);
         if (masterToken == null) {
             throw new IllegalStateException("No master token found");
@@ -0,0 +1,77 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.tokenmanager;
+
+import android.os.Bundle;
+
+import org.microg.gms.common.CircuitBreaker;
+import org.microg.gms.common.HedgedRequest;
+import org.microg.gms.common.HttpFormClient;
+import org.microg.gms.common.HttpRetry;
+import org.microg.gms.common.LatencyHistogram;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide latency and outcome metrics for the token manager.
+ */
+public final class TokenMetrics {
+
+    private TokenMetrics() {
+    } // Prevent instantiation
+
+    public static final LatencyHistogram FETCH_TOKEN_LATENCY = new LatencyHistogram();
+    public static final LatencyHistogram AUTHORIZE_LATENCY = new LatencyHistogram();
+
+    private static final AtomicLong cacheHits = new AtomicLong();
+    private static final AtomicLong cacheMisses = new AtomicLong();
+    private static final Map<String, AtomicLong> tokensByType = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicLong> errorsByClass = new ConcurrentHashMap<>();
+
+    public static void recordCacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    public static void recordCacheMiss() {
+        cacheMisses.incrementAndGet();
+    }
+
+    public static void recordToken(String tokenType) {
+        increment(tokensByType, tokenType);
+    }
+
+    public static void recordError(String errorClass) {
+        increment(errorsByClass, errorClass);
+    }
+
+    private static void increment(Map<String, AtomicLong> counters, String key) {
+        counters.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Take a snapshot of all metrics.
+     */
+    public static Bundle snapshot() {
+        Bundle bundle = new Bundle();
+        FETCH_TOKEN_LATENCY.writeTo(bundle, "fetchToken");
+        AUTHORIZE_LATENCY.writeTo(bundle, "isAuthorized");
+        HttpFormClient.getRequestLatency().writeTo(bundle, "httpRequest");
+        bundle.putLong("httpRequest.retries", HttpRetry.getRetryCount());
+        CircuitBreaker.writeAllTo(bundle, "breaker");
+        HedgedRequest.writeTo(bundle, "hedge");
+        bundle.putLong("cache.hits", cacheHits.get());
+        bundle.putLong("cache.misses", cacheMisses.get());
+        for (Map.Entry<String, AtomicLong> entry : tokensByType.entrySet()) {
+            bundle.putLong("tokens." + entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, AtomicLong> entry : errorsByClass.entrySet()) {
+            bundle.putLong("errors." + entry.getKey(), entry.getValue().get());
+        }
+        return bundle;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.tokenmanager;
+
+import android.util.Log;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules background refreshes of cached tokens shortly before they expire.
+ * Refreshes run at roughly 80% of the token lifetime, spread by a random jitter
+ * so tokens minted together are not all refreshed at the same moment.
+ */
+public class TokenRefreshScheduler {
+    private static final String TAG = "TokenRefreshScheduler";
+    private static final double REFRESH_LIFETIME_FRACTION = 0.8;
+    private static final double REFRESH_JITTER_FRACTION = 0.05;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    public TokenRefreshScheduler() {
+        executor = new ScheduledThreadPoolExecutor(1);
+        executor.setKeepAliveTime(30, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Schedule a refresh for a token that expires at the given time, based on its remaining lifetime.
+     *
+     * @param expiry Expiry in seconds since epoch.
+     */
+    public void schedule(long expiry, Runnable refresh) {
+        long now = TokenCache.now();
+        long lifetime = expiry - now;
+        if (lifetime <= TokenCache.EXPIRY_MARGIN_SECONDS) {
+            return;
+        }
+        double jitter = ThreadLocalRandom.current().nextDouble(-REFRESH_JITTER_FRACTION, REFRESH_JITTER_FRACTION);
+        long delay = (long) (lifetime * (REFRESH_LIFETIME_FRACTION + jitter));
+        // Refresh before the cache considers the token stale
+        delay = Math.min(delay, lifetime - TokenCache.EXPIRY_MARGIN_SECONDS);
+        Log.d(TAG, "Scheduling refresh in " + delay + "s");
+        executor.schedule(() -> {
+            try {
+                refresh.run();
+            } catch (Exception e) {
+                Log.w(TAG, "Background refresh failed", e);
+            }
+        }, delay, TimeUnit.SECONDS);
+    }
+}
@@ -12,14 +12,23 @@ import android.os.Build;
 import org.microg.gms.checkin.LastCheckinInfo;
 import org.microg.gms.common.Constants;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Locale;
 
 /**
  * Builds URL-encoded auth request strings for Google's auth endpoint.
+ * Parameters that only depend on the device are encoded once and reused
+ * until the locale or checkin state changes.
  */
 public class TokenRequestBuilder {
+    private static final ThreadLocal<FormBuffer> BUFFER = new ThreadLocal<FormBuffer>() {
+        @Override
+        protected FormBuffer initialValue() {
+            return new FormBuffer();
+        }
+    };
+    private static volatile DeviceParams deviceParams;
 
     private final Context context;
     private Account account;
@@ -56,19 +65,12 @@ public class TokenRequestBuilder {
     /**
      * Build the URL-encoded auth request string.
      */
-    public String build() throws UnsupportedEncodingException {
+    public String build() {
         if (account == null || token == null) {
             throw new IllegalStateException("Account and token are required");
         }
 
-        // Get Android ID
-        long androidId = LastCheckinInfo.read(context).getAndroidId();
-        String androidIdHex = Long.toHexString(androidId);
-
-        // Get locale
-        Locale locale = Locale.getDefault();
-        String lang = locale.getLanguage() + "_" + locale.getCountry();
-        String country = locale.getCountry().toLowerCase();
+        DeviceParams device = getDeviceParams(context);
 
         // Use defaults if not set
         String pkg = packageName != null ? packageName : TokenConstants.PHOTOS_PACKAGE;
@@ -76,27 +78,152 @@ public class TokenRequestBuilder {
         String svc = scope != null ? scope : TokenConstants.PHOTOS_SCOPE;
 
         // Build request string
-        StringBuilder sb = new StringBuilder();
-        sb.append("androidId=").append(enc(androidIdHex));
-        sb.append("&app=").append(enc(pkg));
-        sb.append("&client_sig=").append(enc(sig));
-        sb.append("&callerPkg=").append(enc(pkg));
-        sb.append("&callerSig=").append(enc(sig));
-        sb.append("&device_country=").append(enc(country));
-        sb.append("&Email=").append(enc(account.name));
-        sb.append("&google_play_services_version=").append(Constants.GMS_VERSION_CODE);
-        sb.append("&lang=").append(enc(lang));
-        sb.append("&oauth2_foreground=1");
-        sb.append("&operatorCountry=").append(enc(country));
-        sb.append("&sdk_version=").append(Build.VERSION.SDK_INT);
-        sb.append("&service=").append(enc(svc));
-        sb.append("&source=android");
-        sb.append("&Token=").append(enc(token));
-
-        return sb.toString();
+        FormBuffer buffer = BUFFER.get();
+        buffer.reset();
+        buffer.append(device.androidId);
+        buffer.appendAscii("&app=").appendEncoded(pkg);
+        buffer.appendAscii("&client_sig=").appendEncoded(sig);
+        buffer.appendAscii("&callerPkg=").appendEncoded(pkg);
+        buffer.appendAscii("&callerSig=").appendEncoded(sig);
+        buffer.append(device.deviceCountry);
+        buffer.appendAscii("&Email=").appendEncoded(account.name);
+        buffer.append(device.versionAndLocale);
+        buffer.appendAscii("&service=").appendEncoded(svc);
+        buffer.appendAscii("&source=android");
+        buffer.appendAscii("&Token=").appendEncoded(token);
+
+        return buffer.toString();
+    }
+
+    /**
+     * Drop the precomputed device parameters, e.g. after a checkin assigned a new Android ID.
+     */
+    public static void invalidateDeviceParams() {
+        deviceParams = null;
+    }
+
+    private static DeviceParams getDeviceParams(Context context) {
+        Locale locale = Locale.getDefault();
+        DeviceParams params = deviceParams;
+        if (params == null || !params.locale.equals(locale)) {
+            long androidId = LastCheckinInfo.read(context).getAndroidId();
+            params = new DeviceParams(Long.toHexString(androidId), locale);
+            deviceParams = params;
+        }
+        return params;
     }
 
-    private String enc(String s) throws UnsupportedEncodingException {
-        return URLEncoder.encode(s, "UTF-8");
+    /**
+     * Encoded request parameters that only depend on the device and locale.
+     */
+    private static final class DeviceParams {
+        final Locale locale;
+        final byte[] androidId;
+        final byte[] deviceCountry;
+        final byte[] versionAndLocale;
+
+        DeviceParams(String androidIdHex, Locale locale) {
+            this.locale = locale;
+            String lang = locale.getLanguage() + "_" + locale.getCountry();
+            String country = locale.getCountry().toLowerCase();
+
+            FormBuffer buffer = new FormBuffer();
+            this.androidId = buffer.appendAscii("androidId=").appendEncoded(androidIdHex).toByteArray();
+            buffer.reset();
+            this.deviceCountry = buffer.appendAscii("&device_country=").appendEncoded(country).toByteArray();
+            buffer.reset();
+            this.versionAndLocale = buffer
+                    .appendAscii("&google_play_services_version=").appendAscii(Integer.toString(Constants.GMS_VERSION_CODE))
+                    .appendAscii("&lang=").appendEncoded(lang)
+                    .appendAscii("&oauth2_foreground=1")
+                    .appendAscii("&operatorCountry=").appendEncoded(country)
+                    .appendAscii("&sdk_version=").appendAscii(Integer.toString(Build.VERSION.SDK_INT))
+                    .toByteArray();
+        }
+    }
+
+    /**
+     * Growable ASCII buffer that form-encodes values the same way as {@link java.net.URLEncoder}
+     * with UTF-8, without creating intermediate strings.
+     */
+    private static final class FormBuffer {
+        private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+        private byte[] bytes = new byte[1024];
+        private int length;
+
+        void reset() {
+            length = 0;
+        }
+
+        FormBuffer append(byte[] value) {
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, bytes, length, value.length);
+            length += value.length;
+            return this;
+        }
+
+        FormBuffer appendAscii(String value) {
+            ensureCapacity(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                bytes[length++] = (byte) value.charAt(i);
+            }
+            return this;
+        }
+
+        FormBuffer appendEncoded(String value) {
+            // Worst case is a 4 byte UTF-8 sequence per surrogate pair, each byte encoded as %XX
+            ensureCapacity(value.length() * 9);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                        || c == '.' || c == '-' || c == '*' || c == '_') {
+                    bytes[length++] = (byte) c;
+                } else if (c == ' ') {
+                    bytes[length++] = '+';
+                } else if (c < 0x80) {
+                    appendEscaped(c);
+                } else if (c < 0x800) {
+                    appendEscaped(0xc0 | (c >> 6));
+                    appendEscaped(0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    appendEscaped(0xf0 | (codePoint >> 18));
+                    appendEscaped(0x80 | ((codePoint >> 12) & 0x3f));
+                    appendEscaped(0x80 | ((codePoint >> 6) & 0x3f));
+                    appendEscaped(0x80 | (codePoint & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    // Unpaired surrogate, encoded as '?' like URLEncoder does
+                    appendEscaped('?');
+                } else {
+                    appendEscaped(0xe0 | (c >> 12));
+                    appendEscaped(0x80 | ((c >> 6) & 0x3f));
+                    appendEscaped(0x80 | (c & 0x3f));
+                }
+            }
+            return this;
+        }
+
+        private void appendEscaped(int b) {
+            bytes[length++] = '%';
+            bytes[length++] = HEX[(b >> 4) & 0xf];
+            bytes[length++] = HEX[b & 0xf];
+        }
+
+        private void ensureCapacity(int additional) {
+            if (length + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+        }
     }
 }
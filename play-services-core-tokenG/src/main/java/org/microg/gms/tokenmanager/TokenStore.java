@@ -0,0 +1,177 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.tokenmanager;
+
+import android.content.Context;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Encrypted on-disk store for cached tokens, so they survive process death.
+ * All entries are kept in a single file encrypted with an AES key held in the
+ * Android keystore. Writes are deferred and coalesced on a background thread.
+ */
+public class TokenStore {
+    private static final String TAG = "TokenStore";
+    private static final String FILE_NAME = "token_cache";
+    private static final String KEY_ALIAS = "token_manager_cache";
+    private static final String ANDROID_KEY_STORE = "AndroidKeyStore";
+    private static final String CIPHER_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int GCM_TAG_LENGTH = 128;
+    private static final int FORMAT_VERSION = 1;
+    private static final long WRITE_DELAY_SECONDS = 5;
+
+    private final AtomicFile file;
+    private final ScheduledThreadPoolExecutor executor;
+    private boolean writePending;
+
+    public TokenStore(Context context) {
+        this.file = new AtomicFile(new File(context.getNoBackupFilesDir(), FILE_NAME));
+        this.executor = new ScheduledThreadPoolExecutor(1);
+        this.executor.setKeepAliveTime(30, TimeUnit.SECONDS);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Read all stored entries. Returns an empty map if nothing is stored or the
+     * file cannot be decrypted.
+     */
+    public Map<String, TokenCache.Entry> read() {
+        Map<String, TokenCache.Entry> entries = new HashMap<>();
+        try {
+            byte[] data = decrypt(file.readFully());
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != FORMAT_VERSION) {
+                return entries;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                String token = in.readUTF();
+                long expiry = in.readLong();
+                entries.put(key, new TokenCache.Entry(token, expiry));
+            }
+            Log.d(TAG, "Loaded " + count + " stored tokens");
+        } catch (FileNotFoundException e) {
+            // Nothing stored yet
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to read stored tokens", e);
+            file.delete();
+        }
+        return entries;
+    }
+
+    /**
+     * {@link #read} the stored entries on the background thread and pass them to {@code consumer}.
+     */
+    public Future<?> readAsync(Consumer<Map<String, TokenCache.Entry>> consumer) {
+        return executor.submit(() -> consumer.accept(read()));
+    }
+
+    /**
+     * Schedule a write of the entries returned by {@code snapshot}.
+     * Calls made while a write is pending are folded into that write.
+     */
+    public void scheduleWrite(Supplier<Map<String, TokenCache.Entry>> snapshot) {
+        synchronized (this) {
+            if (writePending) {
+                return;
+            }
+            writePending = true;
+        }
+        executor.schedule(() -> {
+            synchronized (this) {
+                writePending = false;
+            }
+            write(snapshot.get());
+        }, WRITE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void write(Map<String, TokenCache.Entry> entries) {
+        FileOutputStream out = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeInt(FORMAT_VERSION);
+            data.writeInt(entries.size());
+            for (Map.Entry<String, TokenCache.Entry> entry : entries.entrySet()) {
+                data.writeUTF(entry.getKey());
+                data.writeUTF(entry.getValue().token);
+                data.writeLong(entry.getValue().expiry);
+            }
+            data.flush();
+            byte[] encrypted = encrypt(bytes.toByteArray());
+            out = file.startWrite();
+            out.write(encrypted);
+            file.finishWrite(out);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to write stored tokens", e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+        }
+    }
+
+    private byte[] encrypt(byte[] plain) throws GeneralSecurityException, IOException {
+        Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, getKey());
+        byte[] iv = cipher.getIV();
+        byte[] encrypted = cipher.doFinal(plain);
+        byte[] result = new byte[1 + iv.length + encrypted.length];
+        result[0] = (byte) iv.length;
+        System.arraycopy(iv, 0, result, 1, iv.length);
+        System.arraycopy(encrypted, 0, result, 1 + iv.length, encrypted.length);
+        return result;
+    }
+
+    private byte[] decrypt(byte[] data) throws GeneralSecurityException, IOException {
+        int ivLength = data[0] & 0xff;
+        Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, getKey(), new GCMParameterSpec(GCM_TAG_LENGTH, data, 1, ivLength));
+        return cipher.doFinal(data, 1 + ivLength, data.length - 1 - ivLength);
+    }
+
+    private static SecretKey getKey() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
+        keyStore.load(null);
+        if (keyStore.containsAlias(KEY_ALIAS)) {
+            return (SecretKey) keyStore.getKey(KEY_ALIAS, null);
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, ANDROID_KEY_STORE);
+        generator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        return generator.generateKey();
+    }
+}
@@ -20,12 +20,8 @@ import androidx.preference.PreferenceScreen;
 
 import org.microg.gms.auth.AuthConstants;
 import org.microg.gms.auth.SpoofTokenFetcher;
-import org.microg.gms.checkin.LastCheckinInfo;
-import org.microg.gms.common.Constants;
+import org.microg.gms.tokenmanager.TokenRequestBuilder;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -383,47 +379,19 @@ public class TokenGeneratorFragment extends PreferenceFragmentCompat {
      * Builds a URL-encoded auth request string with device info.
      * This generates a string in the format used by Google's auth endpoint.
      */
-    private String buildAuthRequestString(Context context, Account account, String token)
-            throws UnsupportedEncodingException {
-        // Get Android ID from LastCheckinInfo
-        long androidId = LastCheckinInfo.read(context).getAndroidId();
-        String androidIdHex = Long.toHexString(androidId);
-
+    private String buildAuthRequestString(Context context, Account account, String token) {
         // Get the scope/service for the selected app
         String scope = "CUSTOM".equals(selectedAppPackage) && customScope != null ? customScope
                 : getScopeForPackage(selectedAppPackage);
 
         // Get package and signature
         String packageName = "CUSTOM".equals(selectedAppPackage) ? SpoofTokenFetcher.GMS_PACKAGE : selectedAppPackage;
-        String signature = SpoofTokenFetcher.GOOGLE_SIG;
-
-        // Get locale
-        Locale locale = Locale.getDefault();
-        String lang = locale.getLanguage() + "_" + locale.getCountry();
-        String country = locale.getCountry().toLowerCase();
-
-        // Build the request string
-        StringBuilder sb = new StringBuilder();
-        sb.append("androidId=").append(enc(androidIdHex));
-        sb.append("&app=").append(enc(packageName));
-        sb.append("&client_sig=").append(enc(signature));
-        sb.append("&callerPkg=").append(enc(packageName));
-        sb.append("&callerSig=").append(enc(signature));
-        sb.append("&device_country=").append(enc(country));
-        sb.append("&Email=").append(enc(account.name));
-        sb.append("&google_play_services_version=").append(Constants.GMS_VERSION_CODE);
-        sb.append("&lang=").append(enc(lang));
-        sb.append("&oauth2_foreground=1");
-        sb.append("&operatorCountry=").append(enc(country));
-        sb.append("&sdk_version=").append(android.os.Build.VERSION.SDK_INT);
-        sb.append("&service=").append(enc(scope));
-        sb.append("&source=android");
-        sb.append("&Token=").append(enc(token));
-
-        return sb.toString();
-    }
 
-    private String enc(String s) throws UnsupportedEncodingException {
-        return URLEncoder.encode(s, "UTF-8");
+        return new TokenRequestBuilder(context)
+                .account(account)
+                .token(token)
+                .app(packageName, SpoofTokenFetcher.GOOGLE_SIG)
+                .scope(scope)
+                .build();
     }
 }
\ No newline at end of file
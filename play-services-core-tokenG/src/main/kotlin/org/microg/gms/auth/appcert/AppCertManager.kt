@@ -14,7 +14,6 @@ import com.android.volley.NetworkResponse
 import com.android.volley.Request
 import com.android.volley.Response
 import com.android.volley.VolleyError
-import com.android.volley.toolbox.Volley
 // import com.google.android.gms.BuildConfig
 import com.google.android.gms.tokeng.BuildConfig
 import kotlinx.coroutines.CompletableDeferred
@@ -24,6 +23,7 @@ import okio.ByteString.Companion.of
 import org.microg.gms.checkin.LastCheckinInfo
 import org.microg.gms.common.Constants
 import org.microg.gms.common.PackageUtils
+import org.microg.gms.common.SharedRequestQueue
 //import org.microg.gms.droidguard.core.DroidGuardResultCreator
 import org.microg.gms.gcm.GcmConstants
 // import org.microg.gms.gcm.GcmDatabase
@@ -38,7 +38,7 @@ import javax.crypto.spec.SecretKeySpec
 import kotlin.random.Random
 
 class AppCertManager(private val context: Context) {
-    private val queue = Volley.newRequestQueue(context)
+    private val queue = SharedRequestQueue.get(context)
 
     private fun readDeviceKey() {
         try {
@@ -24,7 +24,6 @@ import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.LifecycleOwner
 import androidx.lifecycle.lifecycleScope
 import com.android.volley.toolbox.JsonObjectRequest
-import com.android.volley.toolbox.Volley
 import com.google.android.gms.auth.api.signin.GoogleSignInAccount
 import com.google.android.gms.auth.api.signin.GoogleSignInOptions
 import com.google.android.gms.auth.api.signin.internal.ISignInCallbacks
@@ -40,6 +39,7 @@ import org.microg.gms.BaseService
 import org.microg.gms.auth.AuthPrefs
 import org.microg.gms.common.GmsService
 import org.microg.gms.common.PackageUtils
+import org.microg.gms.common.SharedRequestQueue
 import org.microg.gms.utils.warnOnTransactionIssues
 import kotlin.coroutines.resume
 import kotlin.coroutines.resumeWithException
@@ -66,7 +66,7 @@ class AuthSignInServiceImpl(
     private val scopes: List<Scope>,
     private val extras: Bundle
 ) : ISignInService.Stub(), LifecycleOwner {
-    private val queue = Volley.newRequestQueue(context)
+    private val queue = SharedRequestQueue.get(context)
 
     override fun silentSignIn(callbacks: ISignInCallbacks, options: GoogleSignInOptions?) {
         Log.d(TAG, "$packageName:silentSignIn($options)")
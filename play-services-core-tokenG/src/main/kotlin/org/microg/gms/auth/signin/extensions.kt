@@ -14,11 +14,19 @@ import com.google.android.gms.auth.api.signin.GoogleSignInOptions
 import com.google.android.gms.common.Scopes
 import com.google.android.gms.common.api.Scope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlinx.coroutines.withContext
 import org.microg.gms.auth.AuthManager
+import org.microg.gms.auth.AuthRequest
+import org.microg.gms.auth.AuthResponse
+import org.microg.gms.common.HttpFormClient
 // import org.microg.gms.people.DatabaseHelper
 import org.microg.gms.utils.toHexString
+import java.io.IOException
 import java.security.MessageDigest
+import java.util.concurrent.CancellationException
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
 import kotlin.math.min
 
 private fun Long?.orMaxIfNegative() = this?.takeIf { it >= 0L } ?: Long.MAX_VALUE
@@ -60,12 +68,38 @@ fun getServerAuthTokenManager(context: Context, packageName: String, options: Go
     return serverAuthTokenManager
 }
 
+/**
+ * Suspend until the request completes on the shared [HttpFormClient] executor, cancelling the HTTP call
+ * if the coroutine is cancelled.
+ */
+suspend fun AuthRequest.awaitResponse(): AuthResponse = suspendCancellableCoroutine { continuation ->
+    val future = getResponseAsync(object : HttpFormClient.Callback<AuthResponse> {
+        override fun onResponse(response: AuthResponse?) {
+            if (response != null) continuation.resume(response)
+            else continuation.resumeWithException(IOException("Empty auth response"))
+        }
+
+        override fun onException(exception: Exception) {
+            if (exception is CancellationException) continuation.cancel(exception) else continuation.resumeWithException(exception)
+        }
+    })
+    continuation.invokeOnCancellation { future.cancel(true) }
+}
+
+/**
+ * Like [AuthManager.requestAuth], but without blocking a thread while waiting for the server.
+ */
+suspend fun AuthManager.awaitAuth(legacy: Boolean): AuthResponse {
+    val stored = withContext(Dispatchers.IO) { getStoredResponse() }
+    if (stored != null) return stored
+    val response = withContext(Dispatchers.IO) { buildAuthRequest(legacy) }.awaitResponse()
+    return withContext(Dispatchers.IO) { handleResponse(response) }
+}
+
 suspend fun performSignIn(context: Context, packageName: String, options: GoogleSignInOptions?, account: Account, permitted: Boolean = false): GoogleSignInAccount? {
     val authManager = getOAuthManager(context, packageName, options, account)
-    val authResponse = withContext(Dispatchers.IO) {
-        if (permitted) authManager.isPermitted = true
-        authManager.requestAuth(true)
-    }
+    if (permitted) withContext(Dispatchers.IO) { authManager.isPermitted = true }
+    val authResponse = authManager.awaitAuth(true)
     if (authResponse.auth == null) return null
     val tag = "AuthSignIn"
     val scopes = options?.scopes.orEmpty().sortedBy { it.scopeUri }
@@ -75,11 +109,11 @@ suspend fun performSignIn(context: Context, packageName: String, options: Google
     Log.d(tag, "id token requested: ${options?.isIdTokenRequested == true}, serverClientId = ${options?.serverClientId}, permitted = ${authManager.isPermitted}")
     val idTokenResponse = getIdTokenManager(context, packageName, options, account)?.let {
         it.isPermitted = authManager.isPermitted
-        withContext(Dispatchers.IO) { it.requestAuth(true) }
+        it.awaitAuth(true)
     }
     val serverAuthTokenResponse = getServerAuthTokenManager(context, packageName, options, account)?.let {
         it.isPermitted = authManager.isPermitted
-        withContext(Dispatchers.IO) { it.requestAuth(true) }
+        it.awaitAuth(true)
     }
     val googleUserId = authManager.getUserData("GoogleUserId")
     val id = if (includeId) googleUserId else null
@@ -122,4 +156,4 @@ fun performSignOut(context: Context, packageName: String, options: GoogleSignInO
         it.isPermitted = false
         it.invalidateAuthToken()
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,69 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.common
+
+import android.content.Context
+import com.android.volley.Header
+import com.android.volley.Request
+import com.android.volley.RequestQueue
+import com.android.volley.toolbox.BaseHttpStack
+import com.android.volley.toolbox.HttpResponse
+import com.android.volley.toolbox.Volley
+import okhttp3.MediaType.Companion.toMediaTypeOrNull
+import okhttp3.OkHttpClient
+import okhttp3.RequestBody.Companion.toRequestBody
+import java.util.concurrent.TimeUnit
+
+/**
+ * Volley stack that sends requests through the shared [HttpTransport] connection pool.
+ */
+class OkHttpStack(private val client: OkHttpClient = HttpTransport.getClient()) : BaseHttpStack() {
+
+    override fun executeRequest(request: Request<*>, additionalHeaders: Map<String, String>): HttpResponse {
+        val timeout = request.timeoutMs.toLong()
+        val callClient = client.newBuilder()
+            .connectTimeout(timeout, TimeUnit.MILLISECONDS)
+            .readTimeout(timeout, TimeUnit.MILLISECONDS)
+            .writeTimeout(timeout, TimeUnit.MILLISECONDS)
+            .build()
+
+        val builder = okhttp3.Request.Builder().url(request.url)
+        for ((name, value) in request.headers) builder.header(name, value)
+        for ((name, value) in additionalHeaders) builder.header(name, value)
+
+        val body = request.body?.toRequestBody(request.bodyContentType.toMediaTypeOrNull())
+        when (request.method) {
+            Request.Method.DEPRECATED_GET_OR_POST -> if (body != null) builder.post(body) else builder.get()
+            Request.Method.GET -> builder.get()
+            Request.Method.DELETE -> builder.delete(body)
+            Request.Method.POST -> builder.post(body ?: ByteArray(0).toRequestBody())
+            Request.Method.PUT -> builder.put(body ?: ByteArray(0).toRequestBody())
+            Request.Method.HEAD -> builder.head()
+            Request.Method.OPTIONS -> builder.method("OPTIONS", null)
+            Request.Method.TRACE -> builder.method("TRACE", null)
+            Request.Method.PATCH -> builder.patch(body ?: ByteArray(0).toRequestBody())
+            else -> throw IllegalStateException("Unknown method type.")
+        }
+
+        val response = callClient.newCall(builder.build()).execute()
+        val headers = response.headers.map { (name, value) -> Header(name, value) }
+        val responseBody = response.body
+        return HttpResponse(response.code, headers, responseBody.contentLength().toInt(), responseBody.byteStream())
+    }
+}
+
+/**
+ * Volley request queue shared by all components, backed by [OkHttpStack].
+ */
+object SharedRequestQueue {
+    @Volatile
+    private var queue: RequestQueue? = null
+
+    @JvmStatic
+    fun get(context: Context): RequestQueue = queue ?: synchronized(this) {
+        queue ?: Volley.newRequestQueue(context.applicationContext, OkHttpStack()).also { queue = it }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.microg.gms.common.HttpFormClient;
+import org.microg.gms.common.HttpStatusException;
+import org.microg.gms.testing.StandInServer;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Locale;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+public class AuthRequestTest {
+    private StandInServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StandInServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    static AuthRequest newRequest(String service) {
+        AuthRequest request = new AuthRequest()
+                .locale(Locale.US)
+                .email("test@example.com")
+                .token("aas_et/master")
+                .service(service)
+                .appIsGms()
+                .callerIsGms();
+        request.deviceName = "generic";
+        request.buildVersion = "TEST";
+        return request;
+    }
+
+    @Test
+    public void accessToken() throws Exception {
+        AuthResponse response = HttpFormClient.request(server.url(StandInServer.AUTH_PATH),
+                newRequest("oauth2:https://www.googleapis.com/auth/photos"), AuthResponse.class);
+        assertNotNull(response.auth);
+        assertEquals("auto", response.issueAdvice);
+        assertEquals("gzip", server.getLastAcceptEncoding());
+
+        Map<String, String> form = server.getLastAuthForm();
+        assertEquals("test@example.com", form.get("Email"));
+        assertEquals("oauth2:https://www.googleapis.com/auth/photos", form.get("service"));
+        assertEquals("aas_et/master", form.get("Token"));
+    }
+
+    @Test
+    public void lsid() throws Exception {
+        AuthResponse response = HttpFormClient.request(server.url(StandInServer.AUTH_PATH),
+                newRequest("ac2dm"), AuthResponse.class);
+        assertNotNull(response.LSid);
+        assertNotNull(response.Sid);
+    }
+
+    @Test
+    public void badAuthentication() throws Exception {
+        try {
+            HttpFormClient.request(server.url(StandInServer.AUTH_PATH), newRequest("ac2dm").token(null), AuthResponse.class);
+            fail("Expected HttpStatusException");
+        } catch (HttpStatusException e) {
+            assertEquals(403, e.getStatusCode());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.checkin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.microg.gms.common.Gzip;
+import org.microg.gms.testing.StandInServer;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+@RunWith(RobolectricTestRunner.class)
+public class CheckinClientTest {
+    private StandInServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StandInServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    /**
+     * A minimal checkin request with all required fields set.
+     */
+    public static CheckinRequest newRequest(long androidId) {
+        return new CheckinRequest.Builder()
+                .androidId(androidId)
+                .digest("")
+                .checkin(new CheckinRequest.Checkin.Builder()
+                        .build(new CheckinRequest.Checkin.Build.Builder()
+                                .fingerprint("generic/sdk/generic:14/TEST/1:user/release-keys")
+                                .device("generic")
+                                .sdkVersion(34)
+                                .build())
+                        .lastCheckinMs(0L)
+                        .build())
+                .locale("en_US")
+                .timeZone("UTC")
+                .fragment(0)
+                .build();
+    }
+
+    @Test
+    public void firstCheckin() throws Exception {
+        CheckinRequest request = newRequest(0);
+        CheckinResponse response = CheckinClient.request(server.url(StandInServer.CHECKIN_PATH), request);
+        assertEquals(request, server.getLastCheckinRequest());
+        assertTrue(response.statsOk);
+        assertNotNull(response.androidId);
+        assertTrue(response.androidId != 0);
+        assertEquals(1, response.setting.size());
+    }
+
+    @Test
+    public void keepsAndroidId() throws Exception {
+        CheckinResponse response = CheckinClient.request(server.url(StandInServer.CHECKIN_PATH), newRequest(42));
+        assertEquals(Long.valueOf(42), response.androidId);
+    }
+
+    @Test
+    public void gzipRoundTrip() throws Exception {
+        CheckinRequest request = newRequest(42);
+        try (InputStream in = Gzip.decompress(new ByteArrayInputStream(Gzip.compress(request.encode())))) {
+            assertEquals(request, CheckinRequest.ADAPTER.decode(in));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.common;
+
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.microg.gms.settings.SettingsContract;
+import org.microg.gms.settings.SettingsProvider;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Collection;
+
+/**
+ * Runs {@link AuthPathBenchmarks} inside the Robolectric environment, the benchmarked code needs the
+ * Android framework. Skipped unless the build runs with {@code -Pbenchmark}:
+ * <pre>
+ * ./gradlew :play-services-core-tokenG:testDefaultDebugUnitTest --tests '*AuthPathBenchmarkTest' -Pbenchmark
+ * </pre>
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AuthPathBenchmarkTest {
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        Robolectric.setupContentProvider(SettingsProvider.class,
+                SettingsContract.INSTANCE.getAuthority(RuntimeEnvironment.getApplication()));
+    }
+
+    @Test
+    public void run() throws Exception {
+        // Forking would leave the Robolectric environment
+        Options options = new OptionsBuilder()
+                .include(AuthPathBenchmarks.class.getName())
+                .forks(0)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+        assertFalse(results.isEmpty());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.common;
+
+import android.content.Context;
+
+import org.microg.gms.auth.AuthRequest;
+import org.microg.gms.auth.AuthResponse;
+import org.microg.gms.checkin.CheckinClientTest;
+import org.microg.gms.checkin.CheckinRequest;
+import org.microg.gms.checkin.CheckinResponse;
+import org.microg.gms.testing.StandInServer;
+import org.microg.gms.tokenmanager.TokenRequestBuilder;
+import org.microg.gms.tokenmanager.TokenRequestBuilderTest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * JMH benchmarks of the auth path: form requests against a {@link StandInServer}, response parsing,
+ * building token requests and the checkin encode/decode round trip. Run through {@link AuthPathBenchmarkTest}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AuthPathBenchmarks {
+    private static final MediaType TEXT_PLAIN = MediaType.get("text/plain");
+    private static final Request PARSE_REQUEST = new Request.Builder().url("https://android.googleapis.com/auth").build();
+
+    private StandInServer server;
+    private Context context;
+    private byte[] authResponseBody;
+    private CheckinRequest checkinRequest;
+    private CheckinResponse checkinResponse;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new StandInServer();
+        context = RuntimeEnvironment.getApplication();
+        Map<String, String> form = new HashMap<>();
+        form.put("service", "oauth2:https://www.googleapis.com/auth/photos");
+        authResponseBody = StandInServer.authResponse(form, 1).getBytes(StandardCharsets.UTF_8);
+        checkinRequest = CheckinClientTest.newRequest(0x3a2b1c0d4e5f6071L);
+        checkinResponse = StandInServer.checkinResponse(checkinRequest);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public AuthResponse formRequest() throws IOException {
+        AuthRequest request = new AuthRequest()
+                .locale(Locale.US)
+                .email("test@example.com")
+                .token("aas_et/master")
+                .service("oauth2:https://www.googleapis.com/auth/photos")
+                .appIsGms()
+                .callerIsGms();
+        return HttpFormClient.request(server.url(StandInServer.AUTH_PATH), request, AuthResponse.class);
+    }
+
+    @Benchmark
+    public AuthResponse parseResponse() throws IOException {
+        Response response = new Response.Builder()
+                .request(PARSE_REQUEST)
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(authResponseBody, TEXT_PLAIN))
+                .build();
+        return HttpFormClient.parseResponse(AuthResponse.class, response);
+    }
+
+    @Benchmark
+    public String tokenRequestBuilderBuild() {
+        TokenRequestBuilder builder = TokenRequestBuilderTest.newBuilder(context, "test@example.com",
+                "oauth2:https://www.googleapis.com/auth/photos");
+        return builder.build();
+    }
+
+    @Benchmark
+    public CheckinRequest checkinRequestRoundTrip() throws IOException {
+        byte[] encoded = Gzip.compress(checkinRequest.encode());
+        try (InputStream in = Gzip.decompress(new ByteArrayInputStream(encoded))) {
+            return CheckinRequest.ADAPTER.decode(in);
+        }
+    }
+
+    @Benchmark
+    public CheckinResponse checkinResponseRoundTrip() throws IOException {
+        byte[] encoded = Gzip.compress(checkinResponse.encode());
+        try (InputStream in = Gzip.decompress(new ByteArrayInputStream(encoded))) {
+            return CheckinResponse.ADAPTER.decode(in);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.testing;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.microg.gms.checkin.CheckinRequest;
+import org.microg.gms.checkin.CheckinResponse;
+import org.microg.gms.common.Gzip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okio.ByteString;
+
+/**
+ * Local stand-in for {@code android.googleapis.com/auth} and {@code android.clients.google.com/checkin}.
+ * Speaks the form protocol of the auth endpoint and the gzip protobuf protocol of the checkin endpoint,
+ * so the auth path can be tested and benchmarked without network access.
+ */
+public class StandInServer implements Closeable {
+    public static final String AUTH_PATH = "/auth";
+    public static final String CHECKIN_PATH = "/checkin";
+
+    private final HttpServer server;
+    private final AtomicLong requests = new AtomicLong();
+    private volatile Map<String, String> lastAuthForm = Collections.emptyMap();
+    private volatile String lastAcceptEncoding;
+    private volatile CheckinRequest lastCheckinRequest;
+
+    public StandInServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(AUTH_PATH, this::handleAuth);
+        server.createContext(CHECKIN_PATH, this::handleCheckin);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    public String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public Map<String, String> getLastAuthForm() {
+        return lastAuthForm;
+    }
+
+    public String getLastAcceptEncoding() {
+        return lastAcceptEncoding;
+    }
+
+    public CheckinRequest getLastCheckinRequest() {
+        return lastCheckinRequest;
+    }
+
+    /**
+     * The auth response body for a request, in the format of the real endpoint.
+     */
+    public static String authResponse(Map<String, String> form, long n) {
+        StringBuilder sb = new StringBuilder();
+        if ("1".equals(form.get("ACCESS_TOKEN")) || "1".equals(form.get("add_account"))) {
+            sb.append("Token=aas_et/stand-in-master-").append(n).append('\n');
+            sb.append("Email=").append(form.get("Email")).append('\n');
+            sb.append("services=mail,googleme,android\n");
+            sb.append("firstName=Stand\nlastName=In\n");
+            sb.append("accountId=").append(100000000000L + n).append('\n');
+        } else if ("ac2dm".equals(form.get("service"))) {
+            sb.append("SID=stand-in-sid-").append(n).append('\n');
+            sb.append("LSID=stand-in-lsid-").append(n).append('\n');
+            sb.append("Auth=stand-in-ac2dm-").append(n).append('\n');
+        } else {
+            sb.append("Auth=ya29.stand-in-").append(n).append('\n');
+            sb.append("issueAdvice=auto\n");
+            sb.append("Expiry=").append(System.currentTimeMillis() / 1000 + 3600).append('\n');
+            sb.append("storeConsentRemotely=0\n");
+            sb.append("grantedScopes=").append(form.get("service")).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The checkin response for a request. Devices that already checked in keep their android ID.
+     */
+    public static CheckinResponse checkinResponse(CheckinRequest request) {
+        long androidId = request.androidId != null && request.androidId != 0 ? request.androidId : 0x3a2b1c0d4e5f6071L;
+        return new CheckinResponse.Builder()
+                .statsOk(true)
+                .timeMs(System.currentTimeMillis())
+                .digest("stand-in-digest")
+                .setting(Collections.singletonList(new CheckinResponse.GservicesSetting.Builder()
+                        .name(ByteString.encodeUtf8("gms:stand_in"))
+                        .value_(ByteString.encodeUtf8("1"))
+                        .build()))
+                .marketOk(true)
+                .androidId(androidId)
+                .securityToken(0x1122334455667788L)
+                .settingsDiff(false)
+                .build();
+    }
+
+    private void handleAuth(HttpExchange exchange) throws IOException {
+        long n = requests.incrementAndGet();
+        lastAcceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        Map<String, String> form = parseForm(new String(readBody(exchange), StandardCharsets.UTF_8));
+        lastAuthForm = form;
+        if (form.get("Token") == null || form.get("Token").isEmpty()) {
+            respond(exchange, 403, "Error=BadAuthentication\n".getBytes(StandardCharsets.UTF_8), false);
+            return;
+        }
+        byte[] body = authResponse(form, n).getBytes(StandardCharsets.UTF_8);
+        respond(exchange, 200, body, "gzip".equals(lastAcceptEncoding));
+    }
+
+    private void handleCheckin(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        CheckinRequest request;
+        try {
+            request = CheckinRequest.ADAPTER.decode(readBody(exchange));
+        } catch (IOException e) {
+            respond(exchange, 400, "Bad request".getBytes(StandardCharsets.UTF_8), false);
+            return;
+        }
+        lastCheckinRequest = request;
+        exchange.getResponseHeaders().set("Content-Type", "application/x-protobuffer");
+        respond(exchange, 200, checkinResponse(request).encode(), true);
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = Gzip.decompress(in);
+        }
+        try (InputStream body = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = body.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body, boolean gzip) throws IOException {
+        if (gzip) {
+            body = Gzip.compress(body);
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> parseForm(String content) {
+        Map<String, String> form = new HashMap<>();
+        for (String pair : content.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator < 0) continue;
+            form.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+        }
+        return form;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.microg.gms.tokenmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.accounts.Account;
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.microg.gms.settings.SettingsContract;
+import org.microg.gms.settings.SettingsProvider;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+@RunWith(RobolectricTestRunner.class)
+public class TokenRequestBuilderTest {
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        Robolectric.setupContentProvider(SettingsProvider.class, SettingsContract.INSTANCE.getAuthority(context));
+        TokenRequestBuilder.invalidateDeviceParams();
+    }
+
+    /**
+     * A token request for the stand-in server, see {@link org.microg.gms.testing.StandInServer}.
+     */
+    public static TokenRequestBuilder newBuilder(Context context, String email, String scope) {
+        return new TokenRequestBuilder(context)
+                .account(new Account(email, "com.google"))
+                .token("aas_et/master")
+                .scope(scope);
+    }
+
+    @Test
+    public void encodesLikeUrlEncoder() {
+        String[] values = {"plain", "with space", "a&b=c", "oauth2:https://www.googleapis.com/auth/photos",
+                "ümlaut", "日本", "emoji 😀", "unpaired \uD83D", "*.-_~!'()"};
+        for (String value : values) {
+            String request = newBuilder(context, "test@example.com", value).build();
+            String expected = "&service=" + URLEncoder.encode(value, StandardCharsets.UTF_8) + "&";
+            assertTrue(value + " encoded as " + request, request.contains(expected));
+        }
+    }
+
+    @Test
+    public void requiredParameters() {
+        String request = newBuilder(context, "test@example.com", "ac2dm").build();
+        assertTrue(request.startsWith("androidId="));
+        assertTrue(request.contains("&Email=test%40example.com&"));
+        assertTrue(request.endsWith("&Token=aas_et%2Fmaster"));
+        assertEquals(request, newBuilder(context, "test@example.com", "ac2dm").build());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void requiresToken() {
+        new TokenRequestBuilder(context).account(new Account("test@example.com", "com.google")).build();
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * SPDX-FileCopyrightText: 2024 microG Project Team
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package org.microg.httpform
+
+import javax.annotation.processing.AbstractProcessor
+import javax.annotation.processing.ProcessingEnvironment
+import javax.annotation.processing.RoundEnvironment
+import javax.annotation.processing.SupportedAnnotationTypes
+import javax.annotation.processing.SupportedSourceVersion
+import javax.lang.model.SourceVersion
+import javax.lang.model.element.AnnotationMirror
+import javax.lang.model.element.AnnotationValue
+import javax.lang.model.element.ElementKind
+import javax.lang.model.element.ExecutableElement
+import javax.lang.model.element.Modifier
+import javax.lang.model.element.TypeElement
+import javax.lang.model.element.VariableElement
+import javax.tools.Diagnostic
+
+const val HttpFormClient = "org.microg.gms.common.HttpFormClient"
+const val RequestHeader = "$HttpFormClient.RequestHeader"
+const val RequestContent = "$HttpFormClient.RequestContent"
+const val RequestContentDynamic = "$HttpFormClient.RequestContentDynamic"
+const val ResponseField = "$HttpFormClient.ResponseField"
+const val ResponseHeader = "$HttpFormClient.ResponseHeader"
+const val ResponseStatusCode = "$HttpFormClient.ResponseStatusCode"
+const val ResponseStatusText = "$HttpFormClient.ResponseStatusText"
+
+const val Log = "android.util.Log"
+const val Response = "okhttp3.Response"
+
+val READABLE_TYPES = setOf("java.lang.String", "boolean", "long", "int")
+
+/**
+ * Generates a `<Class>$000FormCodec` for every class with [HttpFormClient] annotated fields, so requests
+ * and responses are encoded and parsed through direct field access instead of reflection.
+ */
+@SupportedSourceVersion(SourceVersion.RELEASE_8)
+@SupportedAnnotationTypes(RequestHeader, RequestContent, RequestContentDynamic, ResponseField, ResponseHeader, ResponseStatusCode, ResponseStatusText)
+class HttpFormProcessor : AbstractProcessor() {
+    override fun process(set: Set<TypeElement>, roundEnvironment: RoundEnvironment): Boolean {
+        val classElements = set.flatMap { roundEnvironment.getElementsAnnotatedWith(it) }
+            .map { it.enclosingElement }
+            .filterIsInstance<TypeElement>()
+            .distinct()
+        for (classElement in classElements) {
+            val clazz = FormClassInfo(processingEnv, classElement)
+            if (clazz.check()) {
+                processingEnv.filer.createSourceFile(clazz.fullCodecName, classElement).openWriter().use { it.write(clazz.generateCodec()) }
+            }
+        }
+        return false
+    }
+}
+
+class FormClassInfo(private val processingEnv: ProcessingEnvironment, val classElement: TypeElement) {
+    val fullName = classElement.qualifiedName.toString()
+    val packageName = processingEnv.elementUtils.getPackageOf(classElement).qualifiedName.toString()
+    val binaryName = processingEnv.elementUtils.getBinaryName(classElement).toString()
+
+    val codecName = (if (packageName.isEmpty()) binaryName else binaryName.substring(packageName.length + 1)) + "\$000FormCodec"
+    val fullCodecName = if (packageName.isEmpty()) codecName else "$packageName.$codecName"
+
+    val fields = classElement.enclosedElements
+        .filter { it.kind == ElementKind.FIELD && !it.modifiers.contains(Modifier.STATIC) }
+        .filterIsInstance<VariableElement>()
+        .map { FormFieldInfo(processingEnv, it) }
+        .filter { it.isAnnotated }
+
+    val hasConstructor = !classElement.modifiers.contains(Modifier.ABSTRACT) && classElement.enclosedElements
+        .filter { it.kind == ElementKind.CONSTRUCTOR }
+        .filterIsInstance<ExecutableElement>()
+        .any { it.parameters.isEmpty() && !it.modifiers.contains(Modifier.PRIVATE) }
+
+    fun check(): Boolean {
+        fun note(message: String) = processingEnv.messager.printMessage(Diagnostic.Kind.NOTE, message)
+        fun error(message: String) = processingEnv.messager.printMessage(Diagnostic.Kind.ERROR, message)
+        var element = classElement
+        while (true) {
+            if (element.modifiers.contains(Modifier.PRIVATE)) {
+                note("Using reflection to access $fullName. Consider making it package-visible for improved performance.")
+                return false
+            }
+            element = element.enclosingElement as? TypeElement ?: break
+        }
+        for (field in fields) {
+            if (field.isPrivate) {
+                note("Using reflection when accessing ${field.name} in $fullName. Consider making it package-visible for improved performance.")
+                return false
+            }
+            if (field.dynamic && !field.type.startsWith("java.util.Map<java.lang.String,java.lang.String>")) {
+                error("Field ${field.name} in $fullName has unsupported type ${field.type} for @RequestContentDynamic.")
+                return false
+            }
+            if ((field.responseKey != null || field.responseHeader != null) && field.type !in READABLE_TYPES) {
+                note("Field ${field.name} in $fullName has unsupported type ${field.type} and will not be set from responses.")
+            }
+        }
+        return true
+    }
+
+    fun generateCodec(): String {
+        fun List<String>.linesToString(prefix: String = "") = joinToString("\n                    $prefix")
+        val writeRequest = fields.flatMap { it.writeRequest }.linesToString("    ")
+        val readField = fields.filter { it.responseKey != null }
+            .groupBy { it.responseKey!! }
+            .flatMap { (key, fields) ->
+                listOf("case ${literal(key)}:") + fields.flatMap { it.readValue("response", "value").map { "    $it" } } + "    return true;"
+            }.linesToString("        ")
+        val readMeta = fields.flatMap { it.readMeta }.linesToString("    ")
+        val newInstance = if (hasConstructor) "return new $fullName();" else "return $fullName.class.getConstructor().newInstance();"
+        val file = """
+                package $packageName;
+
+                //@javax.annotation.processing.Generated // Not supported by Android
+                @androidx.annotation.Keep
+                public class $codecName implements $HttpFormClient.Codec<$fullName> {
+                    @Override
+                    public void writeRequest($fullName request, $HttpFormClient.FormWriter writer) {
+                        String value;
+                        $writeRequest
+                    }
+
+                    @Override
+                    public $fullName newInstance() throws Exception {
+                        $newInstance
+                    }
+
+                    @Override
+                    public boolean readField($fullName response, String key, String value) {
+                        switch (key) {
+                            $readField
+                            default:
+                                return false;
+                        }
+                    }
+
+                    @Override
+                    public void readMeta($fullName response, $Response httpResponse) {
+                        java.util.List<String> header;
+                        $readMeta
+                    }
+                }
+            """.trimIndent()
+        return if (packageName.isEmpty()) file.substringAfter("\n") else file
+    }
+
+    private fun literal(value: String) = processingEnv.elementUtils.getConstantExpression(value)
+}
+
+class FormFieldInfo(private val processingEnv: ProcessingEnvironment, val fieldElement: VariableElement) {
+    val name = fieldElement.simpleName.toString()
+    val type = fieldElement.asType().toString()
+    val isPrivate = fieldElement.modifiers.contains(Modifier.PRIVATE)
+
+    val dynamic = annotation(RequestContentDynamic) != null
+    val requestHeader = annotation(RequestHeader)?.let { RequestAnnotation(it) }
+    val requestContent = annotation(RequestContent)?.let { RequestAnnotation(it) }
+    val responseKey = annotation(ResponseField)?.let { values(it)["value"]?.value?.toString() }
+    val responseHeader = annotation(ResponseHeader)?.let { values(it)["value"]?.value?.toString() }
+    val statusCode = annotation(ResponseStatusCode) != null && type == "int"
+    val statusText = annotation(ResponseStatusText) != null && type == "java.lang.String"
+
+    val isAnnotated = dynamic || requestHeader != null || requestContent != null || responseKey != null ||
+            responseHeader != null || annotation(ResponseStatusCode) != null || annotation(ResponseStatusText) != null
+
+    private fun annotation(type: String) = fieldElement.annotationMirrors.firstOrNull { it.annotationType.toString() == type }
+
+    private fun values(mirror: AnnotationMirror) = processingEnv.elementUtils.getElementValuesWithDefaults(mirror)
+        .mapKeys { it.key.simpleName.toString() }
+
+    inner class RequestAnnotation(mirror: AnnotationMirror) {
+        private val values = values(mirror)
+        @Suppress("UNCHECKED_CAST")
+        val keys = (values["value"]?.value as? List<AnnotationValue>).orEmpty().map { it.value.toString() }
+        val truePresent = values["truePresent"]?.value == true
+        val falsePresent = values["falsePresent"]?.value == true
+        val nullPresent = values["nullPresent"]?.value == true
+    }
+
+    private val valueExpression = when (type) {
+        "java.lang.String" -> "request.$name"
+        "boolean", "byte", "short", "char", "int", "long", "float", "double" -> "String.valueOf(request.$name)"
+        else -> "request.$name != null ? String.valueOf(request.$name) : null"
+    }
+
+    private fun write(annotation: RequestAnnotation, method: String): List<String> {
+        val value = if (type == "boolean") "$HttpFormClient.FormWriter.flag(request.$name, ${annotation.truePresent}, ${annotation.falsePresent})" else valueExpression
+        val prefix = if (annotation.nullPresent) "" else "if (value != null) "
+        return listOf("value = $value;") + annotation.keys.map { "${prefix}writer.$method(${processingEnv.elementUtils.getConstantExpression(it)}, value);" }
+    }
+
+    val writeRequest: List<String>
+        get() = when {
+            dynamic -> listOf(
+                "if (request.$name != null) {",
+                "    for (java.util.Map.Entry<String, String> param : request.$name.entrySet()) {",
+                "        writer.content(param.getKey(), param.getValue());",
+                "    }",
+                "}"
+            )
+            else -> (requestHeader?.let { write(it, "header") } ?: emptyList()) + (requestContent?.let { write(it, "content") } ?: emptyList())
+        }
+
+    fun readValue(target: String, value: String): List<String> = when (type) {
+        "java.lang.String" -> listOf("$target.$name = $value;")
+        "boolean" -> listOf("$target.$name = \"1\".equals($value);")
+        "long" -> listOf("$target.$name = Long.parseLong($value);")
+        "int" -> listOf("$target.$name = Integer.parseInt($value);")
+        else -> emptyList()
+    }
+
+    val readMeta: List<String>
+        get() {
+            val lines = mutableListOf<String>()
+            if (responseHeader != null && type in READABLE_TYPES) {
+                lines += "header = httpResponse.headers(${processingEnv.elementUtils.getConstantExpression(responseHeader)});"
+                lines += "if (header.size() == 1) {"
+                lines += "    try {"
+                lines += readValue("response", "header.get(0)").map { "        $it" }
+                lines += "    } catch (Exception e) {"
+                lines += "        $Log.w(\"GmsHttpFormClient\", e);"
+                lines += "    }"
+                lines += "}"
+            }
+            if (statusCode) lines += "response.$name = httpResponse.code();"
+            if (statusText) lines += "response.$name = httpResponse.message();"
+            return lines
+        }
+}